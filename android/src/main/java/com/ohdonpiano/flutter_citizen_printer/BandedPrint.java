@@ -0,0 +1,215 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.LabelConst;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Streams one long label on continuous media to a printer as a sequence of horizontal bands.
+// Each band is printed as a label as long as the band, with media handling off so the media keeps
+// running between bands; the requested media handling (cut, tear off...) applies to the last band
+// only. A band is held until the next one or finish() arrives, so the last band is known when it
+// is printed.
+// Bands are handed to a single task on the printer's executor through a bounded queue: the task
+// keeps the printer for the whole label, so no other job prints in the middle of it, and at most
+// QUEUE_CAPACITY + 1 bands are in memory however long the label is.
+class BandedPrint {
+    public static final int QUEUE_CAPACITY = 2;
+    private static final long BAND_TIMEOUT_MS = 30000; // Give up if the next band does not arrive in time
+    // Bands are drawn at CLS_PRT_RES_300 like every bitmap label (see drawSpooled in the plugin), so
+    // a band of n dots is n / 300 inch long whatever the printer's own resolution
+    private static final int BAND_RESOLUTION_DPI = LabelConst.CLS_PRT_RES_300;
+
+    // Prints one band image on a connected printer, as printBitmap does for a whole label
+    interface BandPrinter {
+        int print(PrinterTransport printer, byte[] imageBytes) throws Exception;
+    }
+
+    private static class Band {
+        public final byte[] imageBytes;
+        public final int heightDots;
+        public final PrinterExecutors.Callback<Integer> callback;
+
+        public Band(byte[] imageBytes, int heightDots, PrinterExecutors.Callback<Integer> callback) {
+            this.imageBytes = imageBytes;
+            this.heightDots = heightDots;
+            this.callback = callback;
+        }
+    }
+
+    // Queue markers ending the label
+    private static final Band FINISH = new Band(null, 0, null);
+    private static final Band CANCEL = new Band(null, 0, null);
+
+    public final String id;
+    public final PrinterTarget target;
+    private final Integer mediaHandling; // Null keeps the printer's setting
+    private final PrinterConnectionPool connectionPool;
+    private final PrinterExecutors executors;
+    private final BandPrinter bandPrinter;
+    private final BlockingQueue<Band> bands = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 1); // Room for a marker
+    private volatile int error = LabelConst.CLS_SUCCESS;
+    // Checked by the printing task after every band, as the CANCEL marker finds no room in a full queue
+    private volatile boolean cancelled;
+    private Integer outcome; // Result of the whole label once it ended, main thread only
+    private PrinterExecutors.Callback<Integer> finishCallback; // Main thread only
+
+    public BandedPrint(String id, PrinterTarget target, Integer mediaHandling, PrinterConnectionPool connectionPool,
+                       PrinterExecutors executors, BandPrinter bandPrinter) {
+        this.id = id;
+        this.target = target;
+        this.mediaHandling = mediaHandling;
+        this.connectionPool = connectionPool;
+        this.executors = executors;
+        this.bandPrinter = bandPrinter;
+    }
+
+    public void start() {
+        executors.forPrinter(target.key).execute(this::run);
+    }
+
+    // Queues a band; the callback gets its print result. Returns false if QUEUE_CAPACITY bands are
+    // already waiting. Main thread only.
+    public boolean addBand(byte[] imageBytes, int heightDots, PrinterExecutors.Callback<Integer> callback) {
+        if (outcome != null || error != LabelConst.CLS_SUCCESS) {
+            // The label already ended
+            complete(callback, error != LabelConst.CLS_SUCCESS ? error : LabelConst.CLS_E_ILLEGAL);
+            return true;
+        }
+        if (bands.size() >= QUEUE_CAPACITY) {
+            return false;
+        }
+        return bands.offer(new Band(imageBytes, heightDots, callback));
+    }
+
+    // No more bands: the held band is printed as the last one and the callback gets the result of
+    // the whole label, at once if it already ended on an error. Main thread only.
+    public void finish(PrinterExecutors.Callback<Integer> callback) {
+        finishCallback = callback;
+        if (outcome != null) {
+            callback.onSuccess(outcome);
+            return;
+        }
+        bands.offer(FINISH);
+    }
+
+    // Drops the bands not printed yet; the media stops after the band being printed
+    public void cancel() {
+        cancelled = true;
+        // Wakes the printing task if it is waiting for a band
+        bands.offer(CANCEL);
+    }
+
+    private void run() {
+        int res;
+        try {
+            res = connectionPool.execute(target, this::printBands);
+        } catch (RuntimeException e) {
+            System.err.println("Banded print " + id + " failed: " + e.getMessage());
+            res = LabelConst.CLS_E_FAILURE;
+        }
+        if (res != LabelConst.CLS_SUCCESS) {
+            error = res;
+        }
+        int result = res;
+        executors.runOnMainThread(() -> {
+            outcome = result;
+            // Fail whatever was queued after the label ended
+            for (Band band = bands.poll(); band != null; band = bands.poll()) {
+                if (band.callback != null) {
+                    band.callback.onSuccess(result != LabelConst.CLS_SUCCESS ? result : LabelConst.CLS_E_ILLEGAL);
+                }
+            }
+            if (finishCallback != null) {
+                finishCallback.onSuccess(result);
+            }
+        });
+    }
+
+    private int printBands(PrinterTransport printer) {
+        if (error != LabelConst.CLS_SUCCESS) {
+            // The pool reconnected after a band failed: the rest of the label cannot be printed
+            return error;
+        }
+        int savedLength = printer.getContinuousMediaLength();
+        int savedMediaHandling = printer.getMediaHandling();
+        int savedSensor = printer.getLabelSensor();
+        int unit = printer.getMeasurementUnit();
+        printer.setLabelSensor(LabelConst.CLS_SELSENSOR_NONE);
+        Band held = null;
+        try {
+            while (true) {
+                Band next;
+                try {
+                    next = bands.poll(BAND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    next = CANCEL;
+                }
+                if (next == null || next == CANCEL || cancelled) {
+                    int r = next == null ? LabelConst.CLS_E_TIMEOUT : LabelConst.CLS_E_FAILURE;
+                    System.out.println("Banded print " + id + (next == null ? " timed out" : " cancelled"));
+                    if (held != null) {
+                        complete(held.callback, r);
+                    }
+                    if (next != null) {
+                        complete(next.callback, r);
+                    }
+                    error = r;
+                    return r;
+                }
+                if (held != null) {
+                    boolean last = next == FINISH;
+                    int r = printBand(printer, held, unit, last ? (mediaHandling != null ? mediaHandling : savedMediaHandling) : LabelConst.CLS_MEDIAHANDLING_NONE);
+                    complete(held.callback, r);
+                    if (r != LabelConst.CLS_SUCCESS) {
+                        if (!last) {
+                            complete(next.callback, r);
+                        }
+                        error = r;
+                        return r;
+                    }
+                }
+                if (next == FINISH) {
+                    return LabelConst.CLS_SUCCESS;
+                }
+                held = next;
+            }
+        } finally {
+            printer.setContinuousMediaLength(savedLength);
+            printer.setMediaHandling(savedMediaHandling);
+            printer.setLabelSensor(savedSensor);
+        }
+    }
+
+    private int printBand(PrinterTransport printer, Band band, int unit, int bandMediaHandling) {
+        int r = printer.setContinuousMediaLength(mediaLength(band.heightDots, unit));
+        if (r == LabelConst.CLS_SUCCESS) {
+            r = printer.setMediaHandling(bandMediaHandling);
+        }
+        if (r != LabelConst.CLS_SUCCESS) {
+            return r;
+        }
+        try {
+            return bandPrinter.print(printer, band.imageBytes);
+        } catch (Exception e) {
+            System.err.println("Error printing band of " + id + ": " + e.getMessage());
+            return LabelConst.CLS_E_FAILURE;
+        }
+    }
+
+    // Length of a band in the printer's measurement unit: 0.01 inch, or 0.1 mm
+    static int mediaLength(int heightDots, int unit) {
+        if (unit == LabelConst.CLS_UNIT_INCH) {
+            return Math.round(heightDots * 100f / BAND_RESOLUTION_DPI);
+        }
+        return Math.round(heightDots * 254f / BAND_RESOLUTION_DPI);
+    }
+
+    private void complete(PrinterExecutors.Callback<Integer> callback, int result) {
+        if (callback != null) {
+            executors.runOnMainThread(() -> callback.onSuccess(result));
+        }
+    }
+}
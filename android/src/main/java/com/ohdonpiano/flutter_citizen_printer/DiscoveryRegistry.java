@@ -0,0 +1,162 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.citizen.sdk.labelprint.CitizenPrinterInfo;
+import com.citizen.sdk.labelprint.LabelConst;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Cache of the WiFi printers found by searchCitizenPrinter.
+// When started, it scans in the background on the discovery executor in short rounds, so each
+// printer is pushed to Dart ("found") as soon as the round that saw it completes, and printers
+// not seen for the TTL are reported as "lost". While the cache is fresh, detectPrinters and
+// searchLabelPrinter are answered from it without waiting for a scan.
+class DiscoveryRegistry {
+    public static final long DEFAULT_REFRESH_INTERVAL_MS = 10000;
+    public static final long DEFAULT_TTL_MS = 30000;
+    public static final int DEFAULT_SCAN_TIMEOUT = 1; // Seconds per background scan round
+
+    private static class Entry {
+        public final String ipAddress;
+        public final String deviceName;
+        public volatile long lastSeen;
+
+        public Entry(CitizenPrinterInfo info, long lastSeen) {
+            this.ipAddress = info.ipAddress;
+            this.deviceName = info.deviceName;
+            this.lastSeen = lastSeen;
+        }
+
+        public Map<String, String> toMap() {
+            Map<String, String> map = new HashMap<>();
+            map.put("ipAddress", ipAddress);
+            map.put("deviceName", deviceName);
+            return map;
+        }
+    }
+
+    private final PrinterTransport.Factory transportFactory;
+    private final PrinterExecutors executors;
+    private final EventBroadcaster discoveryEvents;
+    private final PrintMetrics metrics;
+    private final Map<String, Entry> printers = new ConcurrentHashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private volatile long lastScanCompleted = 0;
+    private volatile long ttlMs = DEFAULT_TTL_MS;
+
+    // Background scanning state, only touched on the main thread
+    private boolean running = false;
+    private long refreshIntervalMs = DEFAULT_REFRESH_INTERVAL_MS;
+    private int scanTimeout = DEFAULT_SCAN_TIMEOUT;
+    private final Runnable scanRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) {
+                return;
+            }
+            executors.forPrinter(PrinterExecutors.DISCOVERY_KEY).execute(() -> {
+                scan(scanTimeout, new int[1]);
+                handler.post(() -> {
+                    if (running) {
+                        handler.postDelayed(scanRunnable, refreshIntervalMs);
+                    }
+                });
+            });
+        }
+    };
+
+    public DiscoveryRegistry(PrinterTransport.Factory transportFactory, PrinterExecutors executors, EventBroadcaster discoveryEvents, PrintMetrics metrics) {
+        this.transportFactory = transportFactory;
+        this.executors = executors;
+        this.discoveryEvents = discoveryEvents;
+        this.metrics = metrics;
+    }
+
+    // Starts background scanning, or updates its settings if already running. Main thread only.
+    public void start(long refreshIntervalMs, int scanTimeout, long ttlMs) {
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.scanTimeout = scanTimeout;
+        this.ttlMs = ttlMs;
+        if (!running) {
+            running = true;
+            handler.post(scanRunnable);
+        }
+    }
+
+    // Main thread only
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(scanRunnable);
+    }
+
+    // Printers from the last scans, or null if no scan completed within the TTL
+    public List<Map<String, String>> cachedPrinters() {
+        if (System.currentTimeMillis() - lastScanCompleted >= ttlMs) {
+            return null;
+        }
+        return snapshot();
+    }
+
+    // Runs one blocking scan on the calling thread (the discovery executor) and merges the results.
+    // Returns the known printers, or null with the SDK error in err[0].
+    public List<Map<String, String>> scan(int timeout, int[] err) {
+        long startTime = System.nanoTime();
+        CitizenPrinterInfo[] list = transportFactory.create().searchCitizenPrinter(LabelConst.CLS_PORT_WiFi, timeout, err);
+        metrics.record(PrinterExecutors.DISCOVERY_KEY, PrintMetrics.STAGE_DISCOVERY, startTime);
+        if (err[0] != LabelConst.CLS_SUCCESS) {
+            System.err.println("WiFi printer scan failed: " + err[0]);
+            metrics.recordError(PrinterExecutors.DISCOVERY_KEY);
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (list != null) {
+            for (CitizenPrinterInfo info : list) {
+                if (info.ipAddress == null) {
+                    continue;
+                }
+                Entry entry = printers.get(info.ipAddress);
+                if (entry != null) {
+                    entry.lastSeen = now;
+                } else {
+                    entry = new Entry(info, now);
+                    printers.put(entry.ipAddress, entry);
+                    sendEvent("found", entry);
+                }
+            }
+        }
+        Iterator<Entry> iterator = printers.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.lastSeen >= ttlMs) {
+                iterator.remove();
+                sendEvent("lost", entry);
+            }
+        }
+        lastScanCompleted = now;
+        return snapshot();
+    }
+
+    private List<Map<String, String>> snapshot() {
+        List<Map<String, String>> list = new ArrayList<>();
+        for (Entry entry : printers.values()) {
+            list.add(entry.toMap());
+        }
+        return list;
+    }
+
+    private void sendEvent(String event, Entry entry) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("event", event);
+        map.put("ipAddress", entry.ipAddress);
+        map.put("deviceName", entry.deviceName);
+        discoveryEvents.send(map);
+    }
+}
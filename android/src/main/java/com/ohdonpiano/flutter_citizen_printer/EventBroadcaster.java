@@ -0,0 +1,25 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Event stream of the shared PrinterService, fanned out to the EventStreamHandler of every
+// attached engine. Handlers are added and removed as engines attach and detach; sending iterates
+// over a snapshot, so it can run on any thread without locking.
+class EventBroadcaster {
+    private final List<EventStreamHandler> handlers = new CopyOnWriteArrayList<>();
+
+    public void add(EventStreamHandler handler) {
+        handlers.add(handler);
+    }
+
+    public void remove(EventStreamHandler handler) {
+        handlers.remove(handler);
+    }
+
+    public void send(Object event) {
+        for (EventStreamHandler handler : handlers) {
+            handler.send(event);
+        }
+    }
+}
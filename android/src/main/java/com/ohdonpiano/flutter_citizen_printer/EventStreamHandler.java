@@ -0,0 +1,35 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import io.flutter.plugin.common.EventChannel;
+
+// StreamHandler that can be fed from any thread: events are posted to the main thread,
+// where EventSink must be used, and dropped while Dart is not listening.
+class EventStreamHandler implements EventChannel.StreamHandler {
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile EventChannel.EventSink eventSink;
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        eventSink = events;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        eventSink = null;
+    }
+
+    public void send(Object event) {
+        if (eventSink == null) {
+            return;
+        }
+        mainHandler.post(() -> {
+            EventChannel.EventSink sink = eventSink;
+            if (sink != null) {
+                sink.success(event);
+            }
+        });
+    }
+}
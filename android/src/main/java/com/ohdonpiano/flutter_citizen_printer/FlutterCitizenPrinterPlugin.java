@@ -3,198 +3,218 @@ package com.ohdonpiano.flutter_citizen_printer;
 import androidx.annotation.NonNull;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 
 import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 
-import com.citizen.sdk.labelprint.LabelPrinter;
 import com.citizen.sdk.labelprint.LabelConst;
 import com.citizen.sdk.labelprint.LabelDesign;
-import com.citizen.sdk.labelprint.CitizenPrinterInfo;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-
-// Class to represent USB printer information
-class UsbPrinterInfo {
-    public String deviceId;
-    public String deviceName;
-    public String manufacturerName;
-    public String productName;
-    public int vendorId;
-    public int productId;
-    public String serialNumber;
-    public UsbDevice usbDevice;
-
-    public UsbPrinterInfo(UsbDevice device) {
-        this.usbDevice = device;
-        this.deviceId = String.valueOf(device.getDeviceId());
-        this.deviceName = device.getDeviceName();
-        this.manufacturerName = device.getManufacturerName() != null ? device.getManufacturerName() : "";
-        this.productName = device.getProductName() != null ? device.getProductName() : "";
-        this.vendorId = device.getVendorId();
-        this.productId = device.getProductId();
-        this.serialNumber = ""; // Will be populated later with permission
-    }
-
-    public Map<String, Object> toMap() {
-        Map<String, Object> map = new HashMap<>();
-        map.put("deviceId", deviceId);
-        map.put("deviceName", deviceName);
-        map.put("manufacturerName", manufacturerName);
-        map.put("productName", productName);
-        map.put("vendorId", vendorId);
-        map.put("productId", productId);
-        map.put("serialNumber", serialNumber);
-        return map;
-    }
-
-    public String toString() {
-        return "UsbPrinterInfo{" +
-                "deviceId='" + deviceId + '\'' +
-                ", deviceName='" + deviceName + '\'' +
-                ", manufacturerName='" + manufacturerName + '\'' +
-                ", productName='" + productName + '\'' +
-                ", vendorId=" + vendorId +
-                ", productId=" + productId +
-                ", serialNumber='" + serialNumber + '\'' +
-                '}';
-    }
-}
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FlutterCitizenPrinterPlugin implements FlutterPlugin, MethodChannel.MethodCallHandler {
-    private static final String ACTION_USB_PERMISSION = "com.citizen.USB_PERMISSION";
-    private static final String ACTION_USB_SERIAL_PERMISSION = "com.citizen.USB_SERIAL_PERMISSION";
-    private static final String ACTION_USB_PERMISSION_BULK = "com.citizen.USB_PERMISSION_BULK";
-    private static final long PERMISSION_TIMEOUT = 10000; // Aumentato a 10 secondi
+    private static final long PERMISSION_TIMEOUT = 10000; // Time allowed to answer each permission prompt
     private static final long GLOBAL_SEARCH_TIMEOUT = 60000; // 60 secondi per l'intera ricerca
+    private static final String PREPROCESS_KEY = "preprocess";
     private MethodChannel channel;
+    private EventChannel jobEventChannel;
+    private EventChannel discoveryEventChannel;
+    private EventChannel statusEventChannel;
+    private EventChannel metricsEventChannel;
+    private BasicMessageChannel<ByteBuffer> imageChannel;
+    // Streams of this engine, registered with the service's broadcasters while attached
+    private final EventStreamHandler jobEventStream = new EventStreamHandler();
+    private final EventStreamHandler discoveryEventStream = new EventStreamHandler();
+    private final EventStreamHandler statusEventStream = new EventStreamHandler();
+    private final EventStreamHandler metricsEventStream = new EventStreamHandler();
+    // Shared with every other engine of the process; the fields below are taken from it on attach
+    private PrinterService service;
     private Context context;
     private UsbManager usbManager;
-    private Map<String, UsbDevice> usbDeviceMap = new HashMap<>();
-    private BroadcastReceiver usbReceiver;
-    private Map<String, PendingPrintRequest> pendingPrintRequests = new HashMap<>();
-
-    // Variables for asynchronous USB search management with serial number
-    private MethodChannel.Result pendingSearchResult;
-    private ArrayList<UsbPrinterInfo> currentSearchPrinters;
-    private ArrayList<UsbDevice> citizenDevicesQueue;
-    private int currentDeviceIndex;
-    private boolean includeSerialNumbers;
-    private android.os.Handler searchTimeoutHandler;
-    private Runnable searchTimeoutRunnable;
-    private Runnable globalTimeoutRunnable;
-    private long searchStartTime;
-    private boolean isSearchingSerialNumbers = false; // Flag per indicare se stiamo cercando numeri seriali
-
-    // Class to manage pending print requests
-    private static class PendingPrintRequest {
-        public UsbDevice device;
-        public byte[] imageBytes;
-        public MethodChannel.Result result;
-
-        public PendingPrintRequest(UsbDevice device, byte[] imageBytes, MethodChannel.Result result) {
-            this.device = device;
-            this.imageBytes = imageBytes;
+    private UsbDeviceRegistry usbDeviceRegistry;
+    private PrinterExecutors printerExecutors;
+    private PrinterTransport.Factory transportFactory;
+    private PrinterConnectionPool connectionPool;
+    private JobJournal jobJournal;
+    private PrintJobQueue printJobQueue;
+    private DiscoveryRegistry discoveryRegistry;
+    private StatusMonitor statusMonitor;
+    private RetryPolicy retryPolicy;
+    private PrinterGroups printerGroups;
+    private PrintMetrics metrics;
+    private Map<String, LabelTemplate> labelTemplates;
+    private SettingsProfiles settingsProfiles;
+    private SpoolManager spoolManager;
+    private NvBitmapManager nvBitmapManager;
+    private UsbSerialCache usbSerialCache;
+    // Banded prints stream from this engine only, so they stay with it
+    private final Map<String, BandedPrint> bandedPrints = new ConcurrentHashMap<>();
+
+    // Error raised on a printer thread, reported to Dart with its code and SDK result
+    private static class PrinterException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public final String code;
+
+        public PrinterException(String code, int result) {
+            super(String.valueOf(result));
+            this.code = code;
+        }
+    }
+
+    // Forwards the outcome of executor work to a MethodChannel.Result
+    private static class ResultCallback<T> implements PrinterExecutors.Callback<T> {
+        private final MethodChannel.Result result;
+
+        public ResultCallback(MethodChannel.Result result) {
             this.result = result;
         }
+
+        @Override
+        public void onSuccess(T value) {
+            result.success(value);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            if (e instanceof PrinterException) {
+                result.error(((PrinterException) e).code, e.getMessage(), null);
+            } else {
+                result.error("PRINTER_ERROR", e.getMessage(), null);
+            }
+        }
+    }
+
+    // Replies to an image channel message with the outcome of its print job and releases the
+    // spooled image
+    private static class ImageReplyResult implements MethodChannel.Result {
+        private final BasicMessageChannel.Reply<ByteBuffer> reply;
+        private final SpoolManager spoolManager;
+        private final SpoolManager.SpoolFile spoolFile;
+
+        public ImageReplyResult(BasicMessageChannel.Reply<ByteBuffer> reply, SpoolManager spoolManager, SpoolManager.SpoolFile spoolFile) {
+            this.reply = reply;
+            this.spoolManager = spoolManager;
+            this.spoolFile = spoolFile;
+        }
+
+        @Override
+        public void success(Object value) {
+            spoolManager.release(spoolFile);
+            reply.reply(ImageMessage.successReply());
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            spoolManager.release(spoolFile);
+            reply.reply(ImageMessage.errorReply(errorCode, errorMessage));
+        }
+
+        @Override
+        public void notImplemented() {
+            spoolManager.release(spoolFile);
+            reply.reply(null);
+        }
+    }
+
+    // Coalesce key of a queued image label: jobs with the same image bytes, size, preprocessing
+    // and settings profile print the same label and can be merged into one multi-copy print.
+    // The bytes are only compared against the job queued just before on the same printer.
+    private static class ImageLabelKey {
+        private final byte[] imageBytes;
+        private final int width;
+        private final int height;
+        private final ImagePreprocessor.Options preprocess;
+        private final SettingsProfiles.Profile profile;
+
+        public ImageLabelKey(byte[] imageBytes, int width, int height, ImagePreprocessor.Options preprocess, SettingsProfiles.Profile profile) {
+            this.imageBytes = imageBytes;
+            this.width = width;
+            this.height = height;
+            this.preprocess = preprocess;
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ImageLabelKey)) {
+                return false;
+            }
+            ImageLabelKey other = (ImageLabelKey) o;
+            return width == other.width && height == other.height && profile == other.profile
+                    && (preprocess == null ? other.preprocess == null
+                        : other.preprocess != null && preprocess.widthDots == other.preprocess.widthDots
+                          && preprocess.dither.equals(other.preprocess.dither))
+                    && Arrays.equals(imageBytes, other.imageBytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * width + height) + imageBytes.length;
+        }
     }
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
-        channel = new MethodChannel(binding.getBinaryMessenger(), "flutter_citizen_printer");
-        context = binding.getApplicationContext();
-        usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        // Printers, queues and caches are shared by every engine of the process
+        service = PrinterService.acquire(binding.getApplicationContext());
+        context = service.context;
+        usbManager = service.usbManager;
+        usbDeviceRegistry = service.usbDeviceRegistry;
+        transportFactory = service.transportFactory;
+        printerExecutors = service.printerExecutors;
+        connectionPool = service.connectionPool;
+        jobJournal = service.jobJournal;
+        printJobQueue = service.printJobQueue;
+        discoveryRegistry = service.discoveryRegistry;
+        statusMonitor = service.statusMonitor;
+        retryPolicy = service.retryPolicy;
+        printerGroups = service.printerGroups;
+        metrics = service.metrics;
+        labelTemplates = service.labelTemplates;
+        settingsProfiles = service.settingsProfiles;
+        spoolManager = service.spoolManager;
+        nvBitmapManager = service.nvBitmapManager;
+        usbSerialCache = service.usbSerialCache;
+
+        BinaryMessenger messenger = binding.getBinaryMessenger();
+        channel = new MethodChannel(messenger, "flutter_citizen_printer");
         channel.setMethodCallHandler(this);
-
-        // Register the BroadcastReceiver for USB permissions
-        usbReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                String action = intent.getAction();
-                if (ACTION_USB_PERMISSION.equals(action)) {
-                    synchronized (this) {
-                        UsbDevice device = (UsbDevice) intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
-
-                        if (device != null) {
-                            String deviceKey = String.valueOf(device.getDeviceId());
-                            PendingPrintRequest pendingRequest = pendingPrintRequests.remove(deviceKey);
-
-                            if (pendingRequest != null) {
-                                if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
-                                    // Permission granted - wait a moment for USB to stabilize before printing
-                                    final PendingPrintRequest finalRequest = pendingRequest;
-                                    new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
-                                        int res = executePrintWithDevice(finalRequest.device, finalRequest.imageBytes);
-                                        if (res == LabelConst.CLS_SUCCESS) {
-                                            finalRequest.result.success(null);
-                                        } else {
-                                            finalRequest.result.error("PRINT_ERROR", String.valueOf(res), null);
-                                        }
-                                    }, 300); // 300ms delay for USB stabilization
-                                } else {
-                                    // Permission denied
-                                    pendingRequest.result.error("PERMISSION_DENIED", "USB permission denied", null);
-                                }
-                            }
-                        }
-                    }
-                } else if (ACTION_USB_SERIAL_PERMISSION.equals(action)) {
-                    synchronized (this) {
-                        UsbDevice device = (UsbDevice) intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
-
-                        if (device != null && isSearchingSerialNumbers) {
-                            // Cancel any existing timeout for this device
-                            if (searchTimeoutHandler != null && searchTimeoutRunnable != null) {
-                                searchTimeoutHandler.removeCallbacks(searchTimeoutRunnable);
-                            }
-
-                            if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
-                                // Permission granted, read the serial number
-                                System.out.println("Permission GRANTED for device: " + device.getDeviceId());
-                                processSerialNumberForDevice(device);
-                            } else {
-                                // Permission denied, continue with next device
-                                System.out.println("Permission DENIED for device: " + device.getDeviceId());
-                                processNextCitizenDevice();
-                            }
-                        }
-                    }
-                } else if (ACTION_USB_PERMISSION_BULK.equals(action)) {
-                    synchronized (this) {
-                        UsbDevice device = (UsbDevice) intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
-
-                        if (device != null && pendingPermissionResult != null) {
-                            if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
-                                permissionsGrantedCount++;
-                                System.out.println("Bulk permission GRANTED for device: " + device.getDeviceId());
-                            } else {
-                                System.out.println("Bulk permission DENIED for device: " + device.getDeviceId());
-                            }
-                            // Request permission for the next device
-                            requestNextPermission();
-                        }
-                    }
-                }
-            }
-        };
-        IntentFilter filter = new IntentFilter(ACTION_USB_PERMISSION);
-        filter.addAction(ACTION_USB_SERIAL_PERMISSION);
-        filter.addAction(ACTION_USB_PERMISSION_BULK);
-        // For Android 13+ we need to specify the RECEIVER_NOT_EXPORTED flag
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.TIRAMISU) {
-            context.registerReceiver(usbReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
-        } else {
-            context.registerReceiver(usbReceiver, filter);
+        jobEventChannel = new EventChannel(messenger, "flutter_citizen_printer/print_jobs");
+        jobEventChannel.setStreamHandler(jobEventStream);
+        service.jobEvents.add(jobEventStream);
+        discoveryEventChannel = new EventChannel(messenger, "flutter_citizen_printer/discovery");
+        discoveryEventChannel.setStreamHandler(discoveryEventStream);
+        service.discoveryEvents.add(discoveryEventStream);
+        statusEventChannel = new EventChannel(messenger, "flutter_citizen_printer/status");
+        statusEventChannel.setStreamHandler(statusEventStream);
+        service.statusEvents.add(statusEventStream);
+        metricsEventChannel = new EventChannel(messenger, "flutter_citizen_printer/metrics");
+        metricsEventChannel.setStreamHandler(metricsEventStream);
+        service.metricsEvents.add(metricsEventStream);
+        // Image payloads bypass StandardMethodCodec: raw bytes handled off the main thread
+        imageChannel = new BasicMessageChannel<>(messenger, "flutter_citizen_printer/image", BinaryCodec.INSTANCE_DIRECT, messenger.makeBackgroundTaskQueue());
+        imageChannel.setMessageHandler(this::onImageMessage);
+        // Resume the jobs a previous run left unfinished; only the first engine does it
+        if (service.claimJournalReplay()) {
+            jobJournal.open(this::replayJournaledJobs);
         }
     }
 
@@ -205,73 +225,369 @@ public class FlutterCitizenPrinterPlugin implements FlutterPlugin, MethodChannel
             byte[] bytes = call.argument("imageBytes");
             int width = call.argument("width");
             int height = call.argument("height");
-            int res = printImageWiFi(ip, bytes, width, height);
-            if (res == LabelConst.CLS_SUCCESS) result.success(null);
-            else result.error("PRINT_ERROR", String.valueOf(res), null);
+            int quantity = quantityOf(call, result);
+            if (quantity == 0) {
+                return;
+            }
+            runPrintJob(PrinterTarget.wifi(ip).key, () -> printImageWiFi(ip, bytes, width, height, quantity), result);
         } else if (call.method.equals("printImageUSB")) {
             byte[] bytes = call.argument("imageBytes");
-            int res = printImageUSB(bytes);
-            if (res == LabelConst.CLS_SUCCESS) result.success(null);
-            else result.error("PRINT_ERROR", String.valueOf(res), null);
+            int quantity = quantityOf(call, result);
+            if (quantity == 0) {
+                return;
+            }
+            PrinterTarget target = PrinterTarget.defaultUsb(usbDeviceRegistry);
+            runPrintJob(target.key, () -> printImageUSB(target, bytes, quantity), result);
         } else if (call.method.equals("printImageUsbSpecific")) {
             String deviceId = call.argument("deviceId");
             byte[] bytes = call.argument("imageBytes");
-            printImageUsbSpecificWithPermission(deviceId, bytes, result);
+            int quantity = quantityOf(call, result);
+            if (quantity == 0) {
+                return;
+            }
+            printImageUsbSpecificWithPermission(deviceId, printer -> printBitmap(printer, bytes, 0, 0, null, quantity), result);
+        } else if (call.method.equals("submitPrintJob")) {
+            PrinterTarget target = resolveTarget(call.argument("target"), result);
+            if (target == null) {
+                return;
+            }
+            byte[] bytes = call.argument("imageBytes");
+            if (bytes == null) {
+                // Would fail when journaled, after the job was accepted
+                result.error("INVALID_IMAGE", "Missing imageBytes", null);
+                return;
+            }
+            Integer width = call.argument("width");
+            Integer height = call.argument("height");
+            int w = width != null ? width : 0;
+            int h = height != null ? height : 0;
+            ImagePreprocessor.Options preprocess = ImagePreprocessor.Options.fromMap(call.argument("preprocess"));
+            SettingsProfiles.Profile profile = settingsProfileOf(call, result);
+            int quantity = profile != null ? quantityOf(call, result) : 0;
+            if (quantity == 0) {
+                return;
+            }
+            Map<String, Object> arguments = call.argument("target");
+            String type = (String) arguments.get("type");
+            String address = (String) arguments.get("wifi".equals(type) ? "ip" : "deviceId");
+            String jobId = UUID.randomUUID().toString();
+            JobJournal.Entry entry = new JobJournal.Entry(jobId, type, address, w, h, preprocess, profile, quantity);
+            // Journaled before it is queued, so its outcome is always recorded after it
+            jobJournal.recordSubmitted(entry, bytes);
+            ImageLabelKey key = new ImageLabelKey(bytes, w, h, preprocess, profile);
+            if (!printJobQueue.submit(target, journaledJob(entry, bytes), quantity, key, jobId, null)) {
+                jobJournal.onJobEnded(jobId, LabelConst.CLS_E_FAILURE);
+                result.error("QUEUE_FULL", "Print queue for " + target + " is full", null);
+            } else {
+                result.success(jobId);
+            }
+        } else if (call.method.equals("registerPrinterGroup")) {
+            String groupId = call.argument("groupId");
+            List<Map<String, Object>> targets = call.argument("targets");
+            if (groupId == null || targets == null || targets.isEmpty()) {
+                result.error("INVALID_GROUP", "A printer group needs an ID and at least one target", null);
+                return;
+            }
+            List<PrinterTarget> members = new ArrayList<>();
+            for (Map<String, Object> arguments : targets) {
+                PrinterTarget target = resolveTarget(arguments, result);
+                if (target == null) {
+                    return;
+                }
+                members.add(target);
+            }
+            printerGroups.register(groupId, members);
+            result.success(null);
+        } else if (call.method.equals("removePrinterGroup")) {
+            printerGroups.remove(call.argument("groupId"));
+            result.success(null);
+        } else if (call.method.equals("submitGroupJob")) {
+            String groupId = call.argument("groupId");
+            if (groupId == null || !printerGroups.contains(groupId)) {
+                result.error("GROUP_NOT_FOUND", "Printer group not registered: " + groupId, null);
+                return;
+            }
+            byte[] bytes = call.argument("imageBytes");
+            if (bytes == null) {
+                // Would only fail when prepared, after the job was accepted
+                result.error("INVALID_IMAGE", "Missing imageBytes", null);
+                return;
+            }
+            Integer width = call.argument("width");
+            Integer height = call.argument("height");
+            int w = width != null ? width : 0;
+            int h = height != null ? height : 0;
+            ImagePreprocessor.Options preprocess = ImagePreprocessor.Options.fromMap(call.argument("preprocess"));
+            SettingsProfiles.Profile profile = settingsProfileOf(call, result);
+            int quantity = profile != null ? quantityOf(call, result) : 0;
+            if (quantity == 0) {
+                return;
+            }
+            PrinterConnectionPool.PrinterAction setup = settingsProfiles.withProfile(profile, printer -> LabelConst.CLS_SUCCESS);
+            PrintJobQueue.LabelJob job = copies -> prepareBitmap(bytes, w, h, preprocess, setup, copies);
+            String jobId = printerGroups.submit(groupId, job, quantity, new ImageLabelKey(bytes, w, h, preprocess, profile));
+            if (jobId == null) {
+                result.error("GROUP_UNAVAILABLE", "No printer of group " + groupId + " can take the job", null);
+            } else {
+                result.success(jobId);
+            }
+        } else if (call.method.equals("printBatch")) {
+            PrinterTarget target = resolveTarget(call.argument("target"), result);
+            if (target == null) {
+                return;
+            }
+            List<byte[]> images = call.argument("images");
+            Integer width = call.argument("width");
+            Integer height = call.argument("height");
+            int w = width != null ? width : 0;
+            int h = height != null ? height : 0;
+            ImagePreprocessor.Options preprocess = ImagePreprocessor.Options.fromMap(call.argument("preprocess"));
+            PrinterConnectionPool.PrinterAction setup = withSettingsProfile(call, printer -> LabelConst.CLS_SUCCESS, result);
+            int quantity = setup != null ? quantityOf(call, result) : 0;
+            if (quantity == 0) {
+                return;
+            }
+            printerExecutors.submit(target.key, () -> printBatch(target, images, w, h, preprocess, setup, quantity), new ResultCallback<>(result));
+        } else if (call.method.equals("registerSettingsProfile")) {
+            String name = call.argument("name");
+            Map<String, Object> settings = call.argument("settings");
+            if (name == null || settings == null) {
+                result.error("INVALID_PROFILE", "A settings profile needs a name and settings", null);
+                return;
+            }
+            settingsProfiles.register(SettingsProfiles.Profile.fromMap(name, settings));
+            result.success(null);
+        } else if (call.method.equals("removeSettingsProfile")) {
+            settingsProfiles.remove(call.argument("name"));
+            result.success(null);
+        } else if (call.method.equals("startBandedPrint")) {
+            PrinterTarget target = resolveTarget(call.argument("target"), result);
+            if (target == null) {
+                return;
+            }
+            String printId = UUID.randomUUID().toString();
+            BandedPrint bandedPrint = new BandedPrint(printId, target, call.argument("mediaHandling"), connectionPool, printerExecutors,
+                    (printer, bytes) -> printBitmap(printer, bytes, 0, 0, null, 1));
+            bandedPrints.put(printId, bandedPrint);
+            bandedPrint.start();
+            result.success(printId);
+        } else if (call.method.equals("printBand")) {
+            BandedPrint bandedPrint = bandedPrints.get(call.argument("printId"));
+            if (bandedPrint == null) {
+                result.error("PRINT_NOT_FOUND", "No banded print in progress: " + call.argument("printId"), null);
+                return;
+            }
+            byte[] bytes = call.argument("imageBytes");
+            int height = call.argument("height");
+            boolean queued = bandedPrint.addBand(bytes, height, new PrinterExecutors.Callback<Integer>() {
+                @Override
+                public void onSuccess(Integer res) {
+                    if (res == LabelConst.CLS_SUCCESS) result.success(null);
+                    else result.error("PRINT_ERROR", String.valueOf(res), null);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    result.error("PRINT_ERROR", e.getMessage(), null);
+                }
+            });
+            if (!queued) {
+                result.error("QUEUE_FULL", "Banded print " + bandedPrint.id + " already has " + BandedPrint.QUEUE_CAPACITY + " bands waiting", null);
+            }
+        } else if (call.method.equals("finishBandedPrint")) {
+            String printId = call.argument("printId");
+            BandedPrint bandedPrint = bandedPrints.get(printId);
+            if (bandedPrint == null) {
+                result.error("PRINT_NOT_FOUND", "No banded print in progress: " + printId, null);
+                return;
+            }
+            bandedPrint.finish(new PrinterExecutors.Callback<Integer>() {
+                @Override
+                public void onSuccess(Integer res) {
+                    bandedPrints.remove(printId);
+                    if (res == LabelConst.CLS_SUCCESS) result.success(null);
+                    else result.error("PRINT_ERROR", String.valueOf(res), null);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    bandedPrints.remove(printId);
+                    result.error("PRINT_ERROR", e.getMessage(), null);
+                }
+            });
+        } else if (call.method.equals("cancelBandedPrint")) {
+            BandedPrint bandedPrint = bandedPrints.remove(call.argument("printId"));
+            if (bandedPrint != null) {
+                bandedPrint.cancel();
+            }
+            result.success(null);
+        } else if (call.method.equals("preprocessImage")) {
+            byte[] bytes = call.argument("imageBytes");
+            ImagePreprocessor.Options preprocess = ImagePreprocessor.Options.fromMap(call.argument("preprocess"));
+            printerExecutors.submit(PREPROCESS_KEY, () -> {
+                long startTime = System.currentTimeMillis();
+                ImagePreprocessor.Result processed = IMAGE_PREPROCESSORS.get().process(bytes, preprocess);
+                Map<String, Object> map = new HashMap<>();
+                map.put("imageBytes", Arrays.copyOf(processed.data, processed.length));
+                map.put("width", processed.width);
+                map.put("height", processed.height);
+                map.put("elapsedMs", System.currentTimeMillis() - startTime);
+                return map;
+            }, new ResultCallback<>(result));
+        } else if (call.method.equals("registerTemplate")) {
+            String templateId = call.argument("templateId");
+            List<Map<String, Object>> elements = call.argument("elements");
+            try {
+                labelTemplates.put(templateId, LabelTemplate.parse(elements));
+                result.success(null);
+            } catch (IllegalArgumentException | ClassCastException e) {
+                result.error("INVALID_TEMPLATE", e.getMessage(), null);
+            }
+        } else if (call.method.equals("removeTemplate")) {
+            String templateId = call.argument("templateId");
+            labelTemplates.remove(templateId);
+            result.success(null);
+        } else if (call.method.equals("printTemplate")) {
+            PrinterTarget target = resolveTarget(call.argument("target"), result);
+            if (target == null) {
+                return;
+            }
+            String templateId = call.argument("templateId");
+            Map<String, String> fields = call.argument("fields");
+            LabelTemplate template = labelTemplates.get(templateId);
+            if (template == null) {
+                result.error("TEMPLATE_NOT_FOUND", "Template not registered: " + templateId, null);
+                return;
+            }
+            int quantity = quantityOf(call, result);
+            if (quantity == 0) {
+                return;
+            }
+            PrinterConnectionPool.PrinterAction action = withSettingsProfile(call, printer -> printTemplate(printer, target, template, fields, quantity), result);
+            if (action == null) {
+                return;
+            }
+            runPrintJob(target.key, () -> retryPolicy.execute(target, action), result);
+        } else if (call.method.equals("setNvBitmapCapacity")) {
+            PrinterTarget target = resolveTarget(call.argument("target"), result);
+            if (target == null) {
+                return;
+            }
+            int capacity = call.argument("capacity");
+            nvBitmapManager.setCapacity(target.key, capacity);
+            result.success(null);
         } else if (call.method.equals("detectPrinters")) {
             int timeout = call.argument("timeout");
-            int[] err = new int[1];
-            LabelPrinter printer = new LabelPrinter();
-            printer.setContext(context);
-            CitizenPrinterInfo[] list = printer.searchCitizenPrinter(
-                    LabelConst.CLS_PORT_WiFi,
-                    timeout,
-                    err
-            );
-            if (err[0] == LabelConst.CLS_SUCCESS) {
-                ArrayList<Map<String, String>> ips = new ArrayList<>();
-                for (CitizenPrinterInfo info : list) {
-                    HashMap<String, String> data = new HashMap<>();
-                    data.put("ipAddress", info.ipAddress);
-                    data.put("deviceName", info.deviceName);
-                    ips.add(data);
+            Boolean useCache = call.argument("useCache");
+            if (useCache == null || useCache) {
+                List<Map<String, String>> cached = discoveryRegistry.cachedPrinters();
+                if (cached != null) {
+                    result.success(cached);
+                    return;
                 }
-                result.success(ips);
-            } else {
-                result.error("DETECT_ERROR", String.valueOf(err[0]), null);
             }
+            // Discovery blocks for the whole timeout, so it runs on its own executor
+            printerExecutors.submit(PrinterExecutors.DISCOVERY_KEY, () -> {
+                int[] err = new int[1];
+                List<Map<String, String>> list = discoveryRegistry.scan(timeout, err);
+                if (list == null) {
+                    throw new PrinterException("DETECT_ERROR", err[0]);
+                }
+                return list;
+            }, new ResultCallback<>(result));
         } else if (call.method.equals("searchLabelPrinter")) {
             int timeout = call.argument("timeout");
-            int[] err = new int[1];
-            LabelPrinter printer = new LabelPrinter();
-            printer.setContext(context);
-            String[] list = printer.searchLabelPrinter(
-                    LabelConst.CLS_PORT_WiFi,
-                    timeout,
-                    err
-            );
-            if (err[0] == LabelConst.CLS_SUCCESS) {
-                result.success(list);
-            } else {
-                result.error("DETECT_ERROR", String.valueOf(err[0]), null);
+            Boolean useCache = call.argument("useCache");
+            if (useCache == null || useCache) {
+                List<Map<String, String>> cached = discoveryRegistry.cachedPrinters();
+                if (cached != null) {
+                    ArrayList<String> ips = new ArrayList<>();
+                    for (Map<String, String> printer : cached) {
+                        ips.add(printer.get("ipAddress"));
+                    }
+                    result.success(ips);
+                    return;
+                }
             }
+            printerExecutors.submit(PrinterExecutors.DISCOVERY_KEY, () -> {
+                int[] err = new int[1];
+                String[] list = transportFactory.create().searchLabelPrinter(
+                        LabelConst.CLS_PORT_WiFi,
+                        timeout,
+                        err
+                );
+                if (err[0] != LabelConst.CLS_SUCCESS) {
+                    throw new PrinterException("DETECT_ERROR", err[0]);
+                }
+                return list;
+            }, new ResultCallback<>(result));
+        } else if (call.method.equals("startDiscovery")) {
+            Number refreshIntervalMs = call.argument("refreshIntervalMs");
+            Integer scanTimeout = call.argument("scanTimeout");
+            Number ttlMs = call.argument("ttlMs");
+            discoveryRegistry.start(
+                    refreshIntervalMs != null ? refreshIntervalMs.longValue() : DiscoveryRegistry.DEFAULT_REFRESH_INTERVAL_MS,
+                    scanTimeout != null ? scanTimeout : DiscoveryRegistry.DEFAULT_SCAN_TIMEOUT,
+                    ttlMs != null ? ttlMs.longValue() : DiscoveryRegistry.DEFAULT_TTL_MS);
+            result.success(null);
+        } else if (call.method.equals("stopDiscovery")) {
+            discoveryRegistry.stop();
+            result.success(null);
         } else if (call.method.equals("getUsbStatus")) {
-            LabelPrinter printer = new LabelPrinter();
-            printer.setContext(context);
-            int res = printer.connect(LabelConst.CLS_PORT_USB, (UsbDevice) null);
-            if (res != LabelConst.CLS_SUCCESS) {
-                result.error("CONNECT_ERROR", String.valueOf(res), null);
+            PrinterTarget target = PrinterTarget.defaultUsb(usbDeviceRegistry);
+            printerExecutors.submit(target.key, () -> {
+                // Reuse the pooled session so the status query does not compete with prints for the USB device
+                StatusMonitor.Snapshot snapshot = statusMonitor.check(target);
+                if (!snapshot.connected) {
+                    throw new PrinterException("CONNECT_ERROR", snapshot.error);
+                }
+                if (snapshot.error != LabelConst.CLS_SUCCESS) {
+                    throw new PrinterException("STATUS_ERROR", snapshot.error);
+                }
+                return snapshot.status;
+            }, new ResultCallback<>(result));
+        } else if (call.method.equals("getMetrics")) {
+            result.success(metrics.snapshot());
+        } else if (call.method.equals("resetMetrics")) {
+            metrics.reset();
+            result.success(null);
+        } else if (call.method.equals("startMetricsReporting")) {
+            Number intervalMs = call.argument("intervalMs");
+            metrics.startReporting(service.metricsEvents, intervalMs != null ? intervalMs.longValue() : 5000);
+            result.success(null);
+        } else if (call.method.equals("stopMetricsReporting")) {
+            metrics.stopReporting();
+            result.success(null);
+        } else if (call.method.equals("startStatusMonitor")) {
+            PrinterTarget target = resolveTarget(call.argument("target"), result);
+            if (target == null) {
+                return;
+            }
+            Number intervalMs = call.argument("intervalMs");
+            statusMonitor.start(target, intervalMs != null ? intervalMs.longValue() : StatusMonitor.DEFAULT_INTERVAL_MS);
+            result.success(null);
+        } else if (call.method.equals("stopStatusMonitor")) {
+            String key = PrinterTarget.keyOf(call.argument("target"), usbDeviceRegistry);
+            if (key == null) {
+                result.error("INVALID_TARGET", "Invalid printer target", null);
+                return;
+            }
+            statusMonitor.stop(key);
+            result.success(null);
+        } else if (call.method.equals("getCachedStatus")) {
+            String key = PrinterTarget.keyOf(call.argument("target"), usbDeviceRegistry);
+            if (key == null) {
+                result.error("INVALID_TARGET", "Invalid printer target", null);
                 return;
             }
-            int checkRes = printer.printerCheck();
-            printer.disconnect();
-            result.success(checkRes);
+            StatusMonitor.Snapshot snapshot = statusMonitor.cached(key);
+            result.success(snapshot != null ? snapshot.toMap(key) : null);
         } else if (call.method.equals("searchUsbPrinters")) {
             try {
                 Boolean includeSerial = call.argument("includeSerialNumbers");
                 searchUsbPrintersWithOptionalSerialNumbers(result, includeSerial != null ? includeSerial : false);
             } catch (Exception e) {
-                // Clean up in case of error
-                cleanupSearchState();
+                // Raised before the search started, so there is no search state to clean up
                 result.error("USB_SEARCH_ERROR", e.getMessage(), null);
             }
         } else if (call.method.equals("cancelUsbSearch")) {
@@ -288,192 +604,367 @@ public class FlutterCitizenPrinterPlugin implements FlutterPlugin, MethodChannel
         }
     }
 
-    private int printImageWiFi(String ip, byte[] imageBytes, int width, int height) {
-        LabelPrinter printer = new LabelPrinter();
-        printer.setContext(context);
-        int r = printer.connect(LabelConst.CLS_PORT_WiFi, ip);
-        if (r != LabelConst.CLS_SUCCESS) return r;
-        LabelDesign design = new LabelDesign();
-        java.io.File file = null;
-        java.io.FileOutputStream fos = null;
-        try {
-            file = new java.io.File(context.getCacheDir(), "print.png");
-            fos = new java.io.FileOutputStream(file);
-            fos.write(imageBytes);
-            fos.close();
-            fos = null;
-            design.drawBitmap(file.getAbsolutePath(), LabelConst.CLS_RT_NORMAL, width, height, 0, 0, LabelConst.CLS_PRT_RES_300, LabelConst.CLS_UNIT_MILLI);
-            r = printer.print(design, 1);
-        } catch (Exception e) {
-            r = -1;
-        } finally {
-            if (fos != null) {
-                try {
-                    fos.close();
-                } catch (Exception ignored) {
-                }
+    // Runs a print on the printer's executor and replies on the main thread
+    private void runPrintJob(String printerKey, java.util.concurrent.Callable<Integer> job, MethodChannel.Result result) {
+        printerExecutors.submit(printerKey, job, new PrinterExecutors.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer res) {
+                if (res == LabelConst.CLS_SUCCESS) result.success(null);
+                else result.error("PRINT_ERROR", String.valueOf(res), null);
             }
-            if (file != null && file.exists()) {
-                file.delete();
+
+            @Override
+            public void onError(Exception e) {
+                result.error("PRINT_ERROR", e.getMessage(), null);
             }
-            printer.disconnect();
-        }
-        return r;
+        });
     }
 
-    private int printImageUSB(byte[] imageBytes) {
-        LabelPrinter printer = new LabelPrinter();
-        printer.setContext(context);
-        int r = printer.connect(LabelConst.CLS_PORT_USB, (UsbDevice) null);
-        if (r != LabelConst.CLS_SUCCESS) return r;
-        LabelDesign design = new LabelDesign();
-        java.io.File file = null;
-        java.io.FileOutputStream fos = null;
+    // Receives an image print request on a background thread. The message buffer is only valid
+    // during this call, so the image is spooled straight from it: the spool file write is the
+    // only copy of the image on this side. The job is then dispatched like a method call.
+    private void onImageMessage(ByteBuffer message, BasicMessageChannel.Reply<ByteBuffer> reply) {
+        ImageMessage request;
+        SpoolManager.SpoolFile spoolFile;
         try {
-            file = new java.io.File(context.getCacheDir(), "print.png");
-            fos = new java.io.FileOutputStream(file);
-            fos.write(imageBytes);
-            fos.close();
-            fos = null;
-            design.drawBitmap(file.getAbsolutePath(), LabelConst.CLS_RT_NORMAL, 0, 0, 0, 0, LabelConst.CLS_PRT_RES_300, LabelConst.CLS_UNIT_MILLI);
-            r = printer.print(design, 1);
-        } catch (Exception e) {
-            r = -1;
-        } finally {
-            if (fos != null) {
-                try {
-                    fos.close();
-                } catch (Exception ignored) {
-                }
-            }
-            if (file != null && file.exists()) {
-                file.delete();
+            request = ImageMessage.parse(message);
+            long startTime = System.nanoTime();
+            spoolFile = spoolManager.acquire(request.image, "png");
+            metrics.record(request.printerKey(usbDeviceRegistry), PrintMetrics.STAGE_SPOOL, startTime);
+        } catch (IllegalArgumentException e) {
+            reply.reply(ImageMessage.errorReply("INVALID_MESSAGE", e.getMessage()));
+            return;
+        } catch (java.io.IOException e) {
+            reply.reply(ImageMessage.errorReply("PRINT_ERROR", e.getMessage()));
+            return;
+        }
+
+        MethodChannel.Result result = new ImageReplyResult(reply, spoolManager, spoolFile);
+        PrinterConnectionPool.PrinterAction action = printer -> printSpooled(printer, spoolFile, request.width, request.height, request.quantity);
+        new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> {
+            if (request.target == ImageMessage.TARGET_WIFI) {
+                PrinterTarget target = PrinterTarget.wifi(request.address);
+                runPrintJob(target.key, () -> retryPolicy.execute(target, action), result);
+            } else if (request.target == ImageMessage.TARGET_USB_DEFAULT) {
+                PrinterTarget target = PrinterTarget.defaultUsb(usbDeviceRegistry);
+                runPrintJob(target.key, () -> retryPolicy.execute(target, action), result);
+            } else {
+                printImageUsbSpecificWithRetry(request.address, action, result);
             }
-            printer.disconnect();
+        });
+    }
+
+    // Applies the settings profile named in the call's settingsProfile argument, if any, before the
+    // action. Replies with an error and returns null if the profile is not registered.
+    private PrinterConnectionPool.PrinterAction withSettingsProfile(MethodCall call, PrinterConnectionPool.PrinterAction action, MethodChannel.Result result) {
+        SettingsProfiles.Profile profile = settingsProfileOf(call, result);
+        if (profile == null) {
+            return null;
         }
-        return r;
+        return profile == SettingsProfiles.Profile.NONE ? action : settingsProfiles.withProfile(profile, action);
     }
 
-    private ArrayList<Map<String, Object>> searchUsbPrinters() {
-        ArrayList<Map<String, Object>> printerList = new ArrayList<>();
-        usbDeviceMap.clear();
+    // Returns the call's quantity argument, 1 if there is none, or replies with an error and returns
+    // 0 if it is not positive
+    private static int quantityOf(MethodCall call, MethodChannel.Result result) {
+        Integer quantity = call.argument("quantity");
+        if (quantity == null) {
+            return 1;
+        }
+        if (quantity < 1) {
+            result.error("INVALID_QUANTITY", "Quantity must be at least 1: " + quantity, null);
+            return 0;
+        }
+        return quantity;
+    }
 
-        for (UsbDevice device : usbManager.getDeviceList().values()) {
-            // Use getDeviceId() as key instead of getDeviceName()
-            String deviceKey = String.valueOf(device.getDeviceId());
-            usbDeviceMap.put(deviceKey, device);
-            UsbPrinterInfo printerInfo = new UsbPrinterInfo(device);
-            printerList.add(printerInfo.toMap());
+    // Returns the settings profile named in the call's settingsProfile argument, Profile.NONE if
+    // there is none, or replies with an error and returns null if it is not registered
+    private SettingsProfiles.Profile settingsProfileOf(MethodCall call, MethodChannel.Result result) {
+        String name = call.argument("settingsProfile");
+        if (name == null) {
+            return SettingsProfiles.Profile.NONE;
         }
-        return printerList;
+        SettingsProfiles.Profile profile = settingsProfiles.get(name);
+        if (profile == null) {
+            result.error("PROFILE_NOT_FOUND", "Settings profile not registered: " + name, null);
+        }
+        return profile;
     }
 
-    private void printImageUsbSpecificWithPermission(String deviceId, byte[] imageBytes, MethodChannel.Result result) {
-        printImageUsbSpecificWithRetry(deviceId, imageBytes, result, 0);
+    // Resubmits the jobs left unfinished in the journal by a previous run, under their original IDs
+    private void replayJournaledJobs(List<JobJournal.Entry> entries) {
+        for (JobJournal.Entry entry : entries) {
+            PrinterTarget target = journaledTarget(entry);
+            // Resumed jobs are not merged: their images are only read when they are prepared
+            if (target == null || !printJobQueue.submit(target, journaledJob(entry, null), entry.quantity, null, entry.jobId, null)) {
+                System.err.println("Unable to resume journaled job " + entry.jobId + " on " + entry.targetType + " " + entry.address);
+                jobJournal.onJobEnded(entry.jobId, LabelConst.CLS_E_NOTCONNECT);
+            } else {
+                System.out.println("Resumed journaled job " + entry.jobId + " on " + target);
+            }
+        }
     }
 
-    private static final int MAX_PRINT_RETRIES = 3;
-    private static final long PRINT_RETRY_DELAY_MS = 500; // 500ms between retries
+    // Prepares a journaled job from its image bytes, or from the journal's copy after a restart
+    private PrintJobQueue.LabelJob journaledJob(JobJournal.Entry entry, byte[] imageBytes) {
+        PrinterConnectionPool.PrinterAction setup = settingsProfiles.withProfile(entry.profile, printer -> LabelConst.CLS_SUCCESS);
+        return quantity -> prepareBitmap(imageBytes != null ? imageBytes : jobJournal.readImage(entry.getImageHash()),
+                entry.width, entry.height, entry.preprocess, setup, quantity);
+    }
 
-    private void printImageUsbSpecificWithRetry(String deviceId, byte[] imageBytes, MethodChannel.Result result, int retryCount) {
-        searchUsbPrinters();
-        UsbDevice device = usbDeviceMap.get(deviceId);
+    // Target of a journaled job, or null if its USB printer is gone or no longer has permission
+    private PrinterTarget journaledTarget(JobJournal.Entry entry) {
+        if ("wifi".equals(entry.targetType)) {
+            return PrinterTarget.wifi(entry.address);
+        }
+        if (entry.address.isEmpty()) {
+            return PrinterTarget.defaultUsb(usbDeviceRegistry);
+        }
+        UsbDevice device = usbDeviceRegistry.get(entry.address);
+        return device != null && usbDeviceRegistry.hasPermission(device) ? PrinterTarget.usb(device) : null;
+    }
 
-        if (device == null) {
-            if (retryCount < MAX_PRINT_RETRIES) {
-                // Device not found, wait and retry (USB enumeration may be in progress after permission grant)
-                System.out.println("Device " + deviceId + " not found, retrying... (attempt " + (retryCount + 1) + "/" + MAX_PRINT_RETRIES + ")");
-                new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
-                    printImageUsbSpecificWithRetry(deviceId, imageBytes, result, retryCount + 1);
-                }, PRINT_RETRY_DELAY_MS);
-                return;
+    // Builds a PrinterTarget from a Dart target map ({type: wifi, ip} or {type: usb, deviceId?}).
+    // Replies with an error and returns null if the printer cannot be used.
+    private PrinterTarget resolveTarget(Map<String, Object> arguments, MethodChannel.Result result) {
+        if (arguments == null) {
+            result.error("INVALID_TARGET", "Missing printer target", null);
+            return null;
+        }
+        String type = (String) arguments.get("type");
+        if ("wifi".equals(type)) {
+            String ip = (String) arguments.get("ip");
+            if (ip == null || ip.isEmpty()) {
+                result.error("INVALID_TARGET", "Missing ip for WiFi printer target", null);
+                return null;
             }
-            result.error("DEVICE_NOT_FOUND", "Device not found: " + deviceId + " after " + MAX_PRINT_RETRIES + " retries", null);
-            return;
+            return PrinterTarget.wifi(ip);
+        }
+        if ("usb".equals(type)) {
+            String deviceId = (String) arguments.get("deviceId");
+            if (deviceId == null) {
+                return PrinterTarget.defaultUsb(usbDeviceRegistry);
+            }
+            UsbDevice device = usbDeviceRegistry.get(deviceId);
+            if (device == null) {
+                result.error("DEVICE_NOT_FOUND", "Device not found: " + deviceId, null);
+                return null;
+            }
+            if (!usbDeviceRegistry.hasPermission(device)) {
+                // Queued jobs cannot wait for a permission dialog: request permissions upfront
+                result.error("PERMISSION_DENIED", "USB permission not granted for device: " + deviceId, null);
+                return null;
+            }
+            return PrinterTarget.usb(device);
         }
+        result.error("INVALID_TARGET", "Unknown printer target type: " + type, null);
+        return null;
+    }
 
-        // Check if we already have permission
-        if (usbManager.hasPermission(device)) {
-            // We already have permission, proceed directly with printing
-            int res = executePrintWithDevice(device, imageBytes);
-            if (res == LabelConst.CLS_SUCCESS) {
-                result.success(null);
-            } else {
-                // If print failed and we have retries left, try again
-                if (retryCount < MAX_PRINT_RETRIES && res != LabelConst.CLS_SUCCESS) {
-                    System.out.println("Print failed with error " + res + ", retrying... (attempt " + (retryCount + 1) + "/" + MAX_PRINT_RETRIES + ")");
-                    new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
-                        printImageUsbSpecificWithRetry(deviceId, imageBytes, result, retryCount + 1);
-                    }, PRINT_RETRY_DELAY_MS);
-                    return;
+    // Prints quantity copies of each image over one pooled session and returns the result code of
+    // each image.
+    // If the session drops, the pool reconnects and the batch resumes from the first unprinted image.
+    // setup runs on the session before the first image, e.g. to apply a settings profile.
+    private Map<String, Object> printBatch(PrinterTarget target, List<byte[]> images, int width, int height, ImagePreprocessor.Options preprocess,
+                                           PrinterConnectionPool.PrinterAction setup, int quantity) {
+        long startTime = System.currentTimeMillis();
+        int[] results = new int[images.size()];
+        int[] next = new int[1];
+        int res = connectionPool.execute(target, printer -> {
+            int r = setup.run(printer);
+            if (r != LabelConst.CLS_SUCCESS) {
+                return r;
+            }
+            while (next[0] < images.size()) {
+                r = printBitmap(printer, images.get(next[0]), width, height, preprocess, quantity);
+                if (PrinterConnectionPool.isNotConnected(r)) {
+                    return r;
+                }
+                results[next[0]++] = r;
+                if (PrinterConnectionPool.isConnectionError(r)) {
+                    return r;
                 }
-                result.error("PRINT_ERROR", String.valueOf(res), null);
             }
-            return;
+            return LabelConst.CLS_SUCCESS;
+        });
+        // Images never sent share the error that stopped the batch
+        for (int i = next[0]; i < results.length; i++) {
+            results[i] = res;
         }
+        long elapsedMs = System.currentTimeMillis() - startTime;
 
-        // Request permission for the USB device
-        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
-            // USB permission broadcasts need mutable intents so the system can attach EXTRA_DEVICE.
-            flags |= PendingIntent.FLAG_MUTABLE;
+        ArrayList<Integer> resultList = new ArrayList<>();
+        for (int r : results) {
+            resultList.add(r);
         }
-        PendingIntent permissionIntent = PendingIntent.getBroadcast(
-                context, 0, new Intent(ACTION_USB_PERMISSION), flags
-        );
-
-        // Save the pending print request using deviceId as key
-        pendingPrintRequests.put(deviceId, new PendingPrintRequest(device, imageBytes, result));
-
-        usbManager.requestPermission(device, permissionIntent);
+        Map<String, Object> map = new HashMap<>();
+        map.put("results", resultList);
+        map.put("elapsedMs", elapsedMs);
+        return map;
     }
 
-    private int executePrintWithDevice(UsbDevice device, byte[] imageBytes) {
-        LabelPrinter printer = new LabelPrinter();
-        printer.setContext(context);
-        int r = printer.connect(LabelConst.CLS_PORT_USB, device);
+    // Builds the label from the template's vector commands and prints it on a connected printer
+    private int printTemplate(PrinterTransport printer, PrinterTarget target, LabelTemplate template, Map<String, String> fields, int quantity) {
+        long startTime = System.nanoTime();
+        LabelDesign design = new LabelDesign();
+        int r = template.draw(design, fields, nvBitmapManager, printer, target.key);
+        metrics.record(PrintMetrics.STAGE_DRAW, startTime);
         if (r != LabelConst.CLS_SUCCESS) {
-            System.err.println("Error connecting to USB printer: " + r);
             return r;
         }
-        LabelDesign design = new LabelDesign();
-        java.io.File file = null;
-        java.io.FileOutputStream fos = null;
+        startTime = System.nanoTime();
+        r = printer.print(design, quantity);
+        metrics.record(PrintMetrics.STAGE_PRINT, startTime);
+        metrics.recordLabel(r == LabelConst.CLS_SUCCESS, 0, quantity);
+        return r;
+    }
+
+    private int printImageWiFi(String ip, byte[] imageBytes, int width, int height, int quantity) {
+        return retryPolicy.execute(PrinterTarget.wifi(ip), printer -> printBitmap(printer, imageBytes, width, height, null, quantity));
+    }
+
+    private int printImageUSB(PrinterTarget target, byte[] imageBytes, int quantity) {
+        return retryPolicy.execute(target, printer -> printBitmap(printer, imageBytes, 0, 0, null, quantity));
+    }
+
+    // Draws the image on a new label design and prints quantity copies on an already connected
+    // printer. When preprocessing is requested the image is scaled and dithered on the device and
+    // sent as a 1-bit BMP at its exact size in dots.
+    private int printBitmap(PrinterTransport printer, byte[] imageBytes, int width, int height, ImagePreprocessor.Options preprocess,
+                            int quantity) throws Exception {
+        PrintJobQueue.PreparedLabel label = prepareBitmap(imageBytes, width, height, preprocess, null, quantity);
         try {
-            file = new java.io.File(context.getCacheDir(), "print.png");
-            fos = new java.io.FileOutputStream(file);
-            fos.write(imageBytes);
-            fos.close();
-            fos = null;
-            design.drawBitmap(file.getAbsolutePath(), LabelConst.CLS_RT_NORMAL, 0, 0, 0, 0, LabelConst.CLS_PRT_RES_300, LabelConst.CLS_UNIT_MILLI);
-            r = printer.print(design, 1);
-        } catch (Exception e) {
-            System.err.println("Error during print operation: " + e.getMessage());
-            r = -1;
+            return label.transmit(printer);
         } finally {
-            if (fos != null) {
-                try {
-                    fos.close();
-                } catch (Exception ignored) {
+            label.release();
+        }
+    }
+
+    // Prepare stage of an image label: preprocessing, spooling and drawing the label design, none of
+    // which needs the printer. setup, if not null, runs on the session before the label is sent.
+    private PrintJobQueue.PreparedLabel prepareBitmap(byte[] imageBytes, int width, int height, ImagePreprocessor.Options preprocess,
+                                                      PrinterConnectionPool.PrinterAction setup, int quantity) throws java.io.IOException {
+        SpoolManager.SpoolFile spoolFile;
+        long startTime = System.nanoTime();
+        if (preprocess != null) {
+            ImagePreprocessor.Result processed = IMAGE_PREPROCESSORS.get().process(imageBytes, preprocess);
+            metrics.record(PrintMetrics.STAGE_PREPROCESS, startTime);
+            startTime = System.nanoTime();
+            spoolFile = spoolManager.acquire(processed.data, processed.length, "bmp");
+            width = 0;
+            height = 0;
+        } else {
+            spoolFile = spoolManager.acquire(imageBytes, "png");
+        }
+        metrics.record(PrintMetrics.STAGE_SPOOL, startTime);
+        LabelDesign design;
+        try {
+            design = drawSpooled(spoolFile, width, height);
+        } catch (RuntimeException e) {
+            spoolManager.release(spoolFile);
+            throw e;
+        }
+        return new PrintJobQueue.PreparedLabel() {
+            @Override
+            public int transmit(PrinterTransport printer) throws Exception {
+                if (setup != null) {
+                    int r = setup.run(printer);
+                    if (r != LabelConst.CLS_SUCCESS) {
+                        return r;
+                    }
                 }
+                return printDesign(printer, design, spoolFile.size, quantity);
             }
-            if (file != null && file.exists()) {
-                file.delete();
+
+            @Override
+            public void release() {
+                spoolManager.release(spoolFile);
             }
-            printer.disconnect();
-        }
+        };
+    }
+
+    // Draws a spooled image on a new label design and prints quantity copies on an already connected printer
+    private int printSpooled(PrinterTransport printer, SpoolManager.SpoolFile spoolFile, int width, int height, int quantity) {
+        return printDesign(printer, drawSpooled(spoolFile, width, height), spoolFile.size, quantity);
+    }
+
+    private LabelDesign drawSpooled(SpoolManager.SpoolFile spoolFile, int width, int height) {
+        LabelDesign design = new LabelDesign();
+        long startTime = System.nanoTime();
+        design.drawBitmap(spoolFile.getPath(), LabelConst.CLS_RT_NORMAL, width, height, 0, 0, LabelConst.CLS_PRT_RES_300, LabelConst.CLS_UNIT_MILLI);
+        metrics.record(PrintMetrics.STAGE_DRAW, startTime);
+        return design;
+    }
+
+    // Prints quantity copies of the design with a single print command
+    private int printDesign(PrinterTransport printer, LabelDesign design, long bytes, int quantity) {
+        long startTime = System.nanoTime();
+        int r = printer.print(design, quantity);
+        metrics.record(PrintMetrics.STAGE_PRINT, startTime);
+        metrics.recordLabel(r == LabelConst.CLS_SUCCESS, bytes, quantity);
         return r;
     }
 
+    private ArrayList<Map<String, Object>> searchUsbPrinters() {
+        ArrayList<Map<String, Object>> printerList = new ArrayList<>();
+
+        for (UsbDevice device : usbDeviceRegistry.getDevices()) {
+            UsbPrinterInfo printerInfo = new UsbPrinterInfo(device);
+            printerList.add(printerInfo.toMap());
+        }
+        return printerList;
+    }
+
+    private void printImageUsbSpecificWithPermission(String deviceId, PrinterConnectionPool.PrinterAction action, MethodChannel.Result result) {
+        printImageUsbSpecificWithRetry(deviceId, action, result);
+    }
+
+    // Preprocessors keep their work buffers between images, so each printer thread has its own
+    private static final ThreadLocal<ImagePreprocessor> IMAGE_PREPROCESSORS = new ThreadLocal<ImagePreprocessor>() {
+        @Override
+        protected ImagePreprocessor initialValue() {
+            return new ImagePreprocessor();
+        }
+    };
+
+    private static final long DEVICE_WAIT_TIMEOUT_MS = 1500; // Time allowed for a device to attach
+
+    private void printImageUsbSpecificWithRetry(String deviceId, PrinterConnectionPool.PrinterAction action, MethodChannel.Result result) {
+        // The device may still be enumerating after a permission grant: resume as soon as it is attached
+        usbDeviceRegistry.awaitDevice(deviceId, DEVICE_WAIT_TIMEOUT_MS, device -> {
+            if (device == null) {
+                result.error("DEVICE_NOT_FOUND", "Device not found: " + deviceId + " after " + DEVICE_WAIT_TIMEOUT_MS + " ms", null);
+                return;
+            }
+            printImageUsbSpecific(device, deviceId, action, result);
+        });
+    }
+
+    private void printImageUsbSpecific(UsbDevice device, String deviceId, PrinterConnectionPool.PrinterAction action, MethodChannel.Result result) {
+        // Check if we already have permission
+        if (usbDeviceRegistry.hasPermission(device)) {
+            // We already have permission, proceed directly with printing on the printer's executor;
+            // the retry policy retries transient failures and gives up at once on hard printer errors
+            PrinterTarget target = PrinterTarget.usb(device);
+            runPrintJob(target.key, () -> retryPolicy.execute(target, action), result);
+            return;
+        }
+
+        // Request permission for the USB device; only the first print waiting for it opens a prompt,
+        // whichever engine it comes from
+        PrinterTarget target = PrinterTarget.usb(device);
+        service.requestPermission(device, new PrinterService.PendingPrintRequest(
+                () -> runPrintJob(target.key, () -> retryPolicy.execute(target, action), result), result));
+    }
+
     private void searchUsbPrintersWithOptionalSerialNumbers(MethodChannel.Result result, boolean includeSerialNumbers) {
         // If there's already a search in progress, return error
-        if (pendingSearchResult != null || isSearchingSerialNumbers) {
+        if (service.serialSearch.get() != null) {
             result.error("SEARCH_IN_PROGRESS", "Another USB search is already in progress", null);
             return;
         }
 
-        this.includeSerialNumbers = includeSerialNumbers;
-
         // If serial numbers are not requested, use simple synchronous search
         if (!includeSerialNumbers) {
             ArrayList<Map<String, Object>> printerList = searchUsbPrinters();
@@ -481,293 +972,125 @@ public class FlutterCitizenPrinterPlugin implements FlutterPlugin, MethodChannel
             return;
         }
 
-        // Set search flag to prevent concurrent searches
-        isSearchingSerialNumbers = true;
-
-        // Initialize data structures for asynchronous search with serial numbers
-        pendingSearchResult = result;
-        currentSearchPrinters = new ArrayList<>();
-        citizenDevicesQueue = new ArrayList<>();
-        currentDeviceIndex = 0;
-        usbDeviceMap.clear();
-
-        // Start global timeout
-        startGlobalSearchTimeout();
+        // Collect the search state locally; it is published as one SerialNumberSearch below
+        ArrayList<UsbPrinterInfo> currentSearchPrinters = new ArrayList<>();
+        Map<String, UsbPrinterInfo> devicesAwaitingSerialPermission = new HashMap<>();
 
         // Collect all USB devices
-        Collection<UsbDevice> usbDeviceList = usbManager.getDeviceList().values();
+        Collection<UsbDevice> usbDeviceList = usbDeviceRegistry.getDevices();
         System.out.println("Total USB devices found: " + usbDeviceList.size());
 
+        ArrayList<UsbDevice> devicesNeedingPermission = new ArrayList<>();
         for (UsbDevice device : usbDeviceList) {
             String deviceKey = String.valueOf(device.getDeviceId());
-            usbDeviceMap.put(deviceKey, device);
             UsbPrinterInfo printerInfo = new UsbPrinterInfo(device);
+            currentSearchPrinters.add(printerInfo);
 
             // Filter only CITIZEN devices for serial number reading optimization
             String manufacturerName = device.getManufacturerName();
-            if (manufacturerName != null && manufacturerName.toUpperCase().contains("CITIZEN")) {
-                citizenDevicesQueue.add(device);
-                currentSearchPrinters.add(printerInfo);
-                System.out.println("Found CITIZEN device: " + printerInfo.toString());
-            } else {
-                // Add non-CITIZEN devices to results without serial number
-                currentSearchPrinters.add(printerInfo);
+            if (manufacturerName == null || !manufacturerName.toUpperCase().contains("CITIZEN")) {
                 System.out.println("Found non-CITIZEN device: " + printerInfo.toString());
+                continue;
+            }
+            System.out.println("Found CITIZEN device: " + printerInfo.toString());
+
+            // Known serials and devices we already have permission for are resolved right away
+            String serialNumber = usbSerialCache.get(device);
+            if (serialNumber == null && usbDeviceRegistry.hasPermission(device)) {
+                service.readSerialNumber(device, printerInfo);
+            } else if (serialNumber != null) {
+                printerInfo.serialNumber = serialNumber;
+                System.out.println("Cached serial number for device " + deviceKey + ": " + serialNumber);
+            } else {
+                devicesAwaitingSerialPermission.put(deviceKey, printerInfo);
+                devicesNeedingPermission.add(device);
             }
         }
 
-        System.out.println("CITIZEN devices to process for serial numbers: " + citizenDevicesQueue.size());
-
-        // If there are no CITIZEN devices, return results immediately
-        if (citizenDevicesQueue.isEmpty()) {
-            finishSearchAndReturnResults();
-        } else {
-            // Start asynchronous process for CITIZEN devices only
-            processNextCitizenDevice();
-        }
-    }
+        System.out.println("CITIZEN devices needing permission for serial numbers: " + devicesNeedingPermission.size());
 
-    private void processNextCitizenDevice() {
-        if (currentDeviceIndex >= citizenDevicesQueue.size()) {
-            // All CITIZEN devices have been processed
-            finishSearchAndReturnResults();
+        SerialNumberSearch search = new SerialNumberSearch(result, currentSearchPrinters, devicesAwaitingSerialPermission,
+                completed -> service.serialSearch.compareAndSet(completed, null));
+        // Only one search with serial numbers at a time
+        if (!service.serialSearch.compareAndSet(null, search)) {
+            result.error("SEARCH_IN_PROGRESS", "Another USB search is already in progress", null);
             return;
         }
 
-        UsbDevice device = citizenDevicesQueue.get(currentDeviceIndex);
-
-        // Only process if we need serial numbers
-        if (!includeSerialNumbers) {
-            currentDeviceIndex++;
-            processNextCitizenDevice();
+        // If no device needs a permission prompt, return results immediately
+        if (search.isAnswered()) {
+            search.complete();
             return;
         }
 
-        // Check if we already have permission for this device
-        if (usbManager.hasPermission(device)) {
-            // We already have permission, read serial number directly
-            processSerialNumberForDevice(device);
-        } else {
-            // Request permission to read serial number
-            requestSerialNumberPermission(device);
+        // Ask for every permission at once; the search completes when all prompts are answered
+        // or when the overall timeout expires, whichever comes first
+        try {
+            search.startTimeout(Math.min(GLOBAL_SEARCH_TIMEOUT, PERMISSION_TIMEOUT * devicesNeedingPermission.size()));
+            for (UsbDevice device : devicesNeedingPermission) {
+                requestSerialNumberPermission(device);
+            }
+        } catch (RuntimeException e) {
+            search.fail("USB_SEARCH_ERROR", e.getMessage());
         }
     }
 
     private void requestSerialNumberPermission(UsbDevice device) {
-        if (!includeSerialNumbers) {
-            // Skip permission request if serial numbers are not needed
-            currentDeviceIndex++;
-            processNextCitizenDevice();
-            return;
-        }
-
         int flags = PendingIntent.FLAG_UPDATE_CURRENT;
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
             // USB permission broadcasts need mutable intents so the system can attach EXTRA_DEVICE.
             flags |= PendingIntent.FLAG_MUTABLE;
         }
 
+        // A distinct request code per device keeps the pending intents of concurrent requests apart
         PendingIntent permissionIntent = PendingIntent.getBroadcast(
-                context, 0, new Intent(ACTION_USB_SERIAL_PERMISSION), flags
+                context, device.getDeviceId(), new Intent(PrinterService.ACTION_USB_SERIAL_PERMISSION), flags
         );
 
         System.out.println("Requesting serial number permission for device: " + device.getDeviceId());
         usbManager.requestPermission(device, permissionIntent);
-
-        // Start timeout handler
-        startPermissionTimeoutHandler(device);
-    }
-
-    private void startPermissionTimeoutHandler(UsbDevice device) {
-        // Cancel any existing timeout handler for the previous device
-        if (searchTimeoutHandler != null && searchTimeoutRunnable != null) {
-            searchTimeoutHandler.removeCallbacks(searchTimeoutRunnable);
-        }
-
-        // Start a new timeout handler
-        searchStartTime = System.currentTimeMillis();
-        searchTimeoutRunnable = new Runnable() {
-            @Override
-            public void run() {
-                // Only proceed with timeout if we're still searching and this is still the current device
-                if (!isSearchingSerialNumbers || currentDeviceIndex >= citizenDevicesQueue.size()) {
-                    return; // Search was completed or cancelled
-                }
-
-                UsbDevice currentDevice = citizenDevicesQueue.get(currentDeviceIndex);
-                if (currentDevice.getDeviceId() != device.getDeviceId()) {
-                    return; // We've moved to a different device
-                }
-
-                // Check if the permission was granted within the timeout period
-                if (System.currentTimeMillis() - searchStartTime >= PERMISSION_TIMEOUT) {
-                    // Timeout reached, proceed to next device
-                    System.out.println("Permission request timed out for device: " + device.getDeviceId());
-                    currentDeviceIndex++;
-                    processNextCitizenDevice();
-                } else {
-                    // Reschedule the timeout check
-                    if (isSearchingSerialNumbers) {
-                        searchTimeoutHandler.postDelayed(this, 1000);
-                    }
-                }
-            }
-        };
-
-        if (searchTimeoutHandler == null) {
-            searchTimeoutHandler = new android.os.Handler();
-        }
-        searchTimeoutHandler.postDelayed(searchTimeoutRunnable, 1000);
-    }
-
-    private void processSerialNumberForDevice(UsbDevice device) {
-        if (includeSerialNumbers) {
-            try {
-                // Find the corresponding UsbPrinterInfo object and update the serial number
-                String deviceId = String.valueOf(device.getDeviceId());
-                for (UsbPrinterInfo printerInfo : currentSearchPrinters) {
-                    if (printerInfo.deviceId.equals(deviceId)) {
-                        // Read the serial number with granted permission
-                        String serialNumber = device.getSerialNumber();
-                        printerInfo.serialNumber = serialNumber != null ? serialNumber : "";
-                        System.out.println("Serial number for device " + deviceId + ": " + printerInfo.serialNumber);
-                        break;
-                    }
-                }
-            } catch (SecurityException e) {
-                System.err.println("Security exception reading serial number for device " + device.getDeviceId() + ": " + e.getMessage());
-            } catch (Exception e) {
-                System.err.println("Error reading serial number for device " + device.getDeviceId() + ": " + e.getMessage());
-            }
-        }
-
-        // Move to next device
-        currentDeviceIndex++;
-        processNextCitizenDevice();
-    }
-
-    private void finishSearchAndReturnResults() {
-        if (pendingSearchResult == null) {
-            return; // No search in progress
-        }
-
-        try {
-            // Clean up timeout handlers first
-            cleanupTimeoutHandler();
-
-            // Convert results to Map for response
-            ArrayList<Map<String, Object>> resultList = new ArrayList<>();
-            for (UsbPrinterInfo printerInfo : currentSearchPrinters) {
-                resultList.add(printerInfo.toMap());
-            }
-
-            System.out.println("USB search completed. Found " + resultList.size() + " devices:");
-            for (Map<String, Object> printer : resultList) {
-                System.out.println("- " + printer);
-            }
-
-            // Send results
-            pendingSearchResult.success(resultList);
-        } catch (Exception e) {
-            pendingSearchResult.error("SEARCH_COMPLETION_ERROR", e.getMessage(), null);
-        } finally {
-            // Clean up state variables
-            pendingSearchResult = null;
-            currentSearchPrinters = null;
-            citizenDevicesQueue = null;
-            currentDeviceIndex = 0;
-            isSearchingSerialNumbers = false; // Reset search flag
-        }
     }
 
-    // New method to cancel any pending USB search
+    // New method to cancel any pending USB search; the search itself fails with SEARCH_CANCELLED
     private void cancelPendingSearch(MethodChannel.Result result) {
-        if (pendingSearchResult == null) {
+        SerialNumberSearch search = service.serialSearch.get();
+        if (search == null || !search.fail("SEARCH_CANCELLED", "USB search was canceled")) {
             result.success("No search in progress");
             return;
         }
 
-        // Clean up state variables
-        cleanupSearchState();
-
         result.success("Pending USB search canceled");
     }
 
-    // Helper method to clean up search state variables
-    private void cleanupSearchState() {
-        // Clean up timeout handlers first
-        cleanupTimeoutHandler();
-
-        pendingSearchResult = null;
-        currentSearchPrinters = null;
-        citizenDevicesQueue = null;
-        currentDeviceIndex = 0;
-        isSearchingSerialNumbers = false; // Reset search flag
-    }
-
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
         channel.setMethodCallHandler(null);
-
-        // Unregister receiver only if it was registered
-        if (usbReceiver != null) {
-            try {
-                context.unregisterReceiver(usbReceiver);
-            } catch (IllegalArgumentException e) {
-                // Receiver might already be unregistered
-            }
-            usbReceiver = null;
-        }
-
-        // Clean up pending requests and notify errors
-        for (PendingPrintRequest request : pendingPrintRequests.values()) {
-            request.result.error("PLUGIN_DETACHED", "Plugin was detached before print could complete", null);
+        jobEventChannel.setStreamHandler(null);
+        discoveryEventChannel.setStreamHandler(null);
+        statusEventChannel.setStreamHandler(null);
+        metricsEventChannel.setStreamHandler(null);
+        imageChannel.setMessageHandler(null);
+        service.jobEvents.remove(jobEventStream);
+        service.discoveryEvents.remove(discoveryEventStream);
+        service.statusEvents.remove(statusEventStream);
+        service.metricsEvents.remove(metricsEventStream);
+        for (BandedPrint bandedPrint : bandedPrints.values()) {
+            bandedPrint.cancel();
         }
-        pendingPrintRequests.clear();
-        searchTimeoutRunnable = null;
-    }
-
-    // New method to start global timeout for entire search process
-    private void startGlobalSearchTimeout() {
-        cleanupTimeoutHandler(); // Clean up any existing timeout
-
-        searchTimeoutHandler = new android.os.Handler();
-        globalTimeoutRunnable = new Runnable() {
-            @Override
-            public void run() {
-                System.out.println("Global search timeout reached. Completing search with current results.");
-                finishSearchAndReturnResults();
-            }
-        };
-
-        // Set global timeout to 60 seconds (longer than individual permission timeout)
-        searchTimeoutHandler.postDelayed(globalTimeoutRunnable, GLOBAL_SEARCH_TIMEOUT);
+        bandedPrints.clear();
 
-        // Clean up maps
-        usbDeviceMap.clear();
-    }
-
-    // Helper method to clean up timeout handlers
-    private void cleanupTimeoutHandler() {
-        if (searchTimeoutHandler != null && searchTimeoutRunnable != null) {
-            searchTimeoutHandler.removeCallbacks(searchTimeoutRunnable);
-            searchTimeoutHandler = null;
-            searchTimeoutRunnable = null;
-        }
-        if (searchTimeoutHandler != null && globalTimeoutRunnable != null) {
-            searchTimeoutHandler.removeCallbacks(globalTimeoutRunnable);
-            searchTimeoutHandler = null;
-            globalTimeoutRunnable = null;
-        }
+        // Queued jobs keep printing for the other engines; the last engine to detach stops the
+        // service, which fails the pending USB requests and closes the printer sessions
+        PrinterService.release(service);
     }
 
     // Check if any Citizen USB devices need permission
     private boolean checkUsbPermissionsNeeded() {
-        Collection<UsbDevice> usbDeviceList = usbManager.getDeviceList().values();
+        Collection<UsbDevice> usbDeviceList = usbDeviceRegistry.getDevices();
         for (UsbDevice device : usbDeviceList) {
             String manufacturerName = device.getManufacturerName();
             if (manufacturerName != null && manufacturerName.toUpperCase().contains("CITIZEN")) {
-                if (!usbManager.hasPermission(device)) {
+                if (!usbDeviceRegistry.hasPermission(device)) {
                     return true;
                 }
             }
@@ -775,26 +1098,20 @@ public class FlutterCitizenPrinterPlugin implements FlutterPlugin, MethodChannel
         return false;
     }
 
-    // Variables for permission request tracking
-    private MethodChannel.Result pendingPermissionResult;
-    private ArrayList<UsbDevice> devicesNeedingPermission;
-    private int permissionRequestCount;
-    private int permissionsGrantedCount;
-
     // Request USB permissions for all Citizen devices that need it
     private void requestAllUsbPermissions(MethodChannel.Result result) {
-        if (pendingPermissionResult != null) {
+        if (service.bulkPermissionRequest.get() != null) {
             result.error("PERMISSION_IN_PROGRESS", "Permission request already in progress", null);
             return;
         }
 
-        devicesNeedingPermission = new ArrayList<>();
-        Collection<UsbDevice> usbDeviceList = usbManager.getDeviceList().values();
+        ArrayList<UsbDevice> devicesNeedingPermission = new ArrayList<>();
+        Collection<UsbDevice> usbDeviceList = usbDeviceRegistry.getDevices();
 
         for (UsbDevice device : usbDeviceList) {
             String manufacturerName = device.getManufacturerName();
             if (manufacturerName != null && manufacturerName.toUpperCase().contains("CITIZEN")) {
-                if (!usbManager.hasPermission(device)) {
+                if (!usbDeviceRegistry.hasPermission(device)) {
                     devicesNeedingPermission.add(device);
                 }
             }
@@ -805,37 +1122,14 @@ public class FlutterCitizenPrinterPlugin implements FlutterPlugin, MethodChannel
             return;
         }
 
-        pendingPermissionResult = result;
-        permissionRequestCount = devicesNeedingPermission.size();
-        permissionsGrantedCount = 0;
-
-        // Request permission for the first device - subsequent requests will be
-        // triggered in the broadcast receiver after each permission is handled
-        requestNextPermission();
-    }
-
-    private void requestNextPermission() {
-        if (devicesNeedingPermission == null || devicesNeedingPermission.isEmpty()) {
-            // All permissions processed
-            if (pendingPermissionResult != null) {
-                pendingPermissionResult.success(permissionsGrantedCount);
-                pendingPermissionResult = null;
-            }
+        PrinterService.BulkPermissionRequest request = new PrinterService.BulkPermissionRequest(result, devicesNeedingPermission);
+        if (!service.bulkPermissionRequest.compareAndSet(null, request)) {
+            result.error("PERMISSION_IN_PROGRESS", "Permission request already in progress", null);
             return;
         }
 
-        UsbDevice device = devicesNeedingPermission.remove(0);
-
-        int flags = android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S
-                ? PendingIntent.FLAG_MUTABLE
-                : 0;
-
-        PendingIntent permissionIntent = PendingIntent.getBroadcast(
-                context, device.getDeviceId(), new Intent(ACTION_USB_PERMISSION_BULK), flags
-        );
-
-        System.out.println("Requesting bulk permission for device: " + device.getDeviceId());
-        usbManager.requestPermission(device, permissionIntent);
+        // Request permission for the first device - subsequent requests will be
+        // triggered in the broadcast receiver after each permission is handled
+        service.requestNextPermission(request);
     }
 }
-
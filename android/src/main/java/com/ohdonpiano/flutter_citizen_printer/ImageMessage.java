@@ -0,0 +1,104 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+// Image print request received on the "flutter_citizen_printer/image" BasicMessageChannel.
+// The message is a fixed little-endian header followed by the printer address and the raw image
+// bytes, so large images reach the spooler without going through StandardMessageCodec:
+//   offset 0   u8   version (VERSION)
+//   offset 1   u8   target: TARGET_WIFI, TARGET_USB_DEFAULT or TARGET_USB_DEVICE
+//   offset 2   u16  address length in bytes
+//   offset 4   i32  width
+//   offset 8   i32  height
+//   offset 12  i32  quantity, copies printed with one print command (0 is read as 1)
+//   offset 16       address (UTF-8 IP address or USB device ID), then the image up to the end
+// The reply is a single 0 byte on success, or a 1 byte followed by the UTF-8 error code, a NUL
+// byte and the UTF-8 error message.
+class ImageMessage {
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int TARGET_WIFI = 0;
+    public static final int TARGET_USB_DEFAULT = 1;
+    public static final int TARGET_USB_DEVICE = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public final int target;
+    public final String address;
+    public final int width;
+    public final int height;
+    public final int quantity;
+    public final ByteBuffer image; // View of the message buffer, not a copy
+
+    private ImageMessage(int target, String address, int width, int height, int quantity, ByteBuffer image) {
+        this.target = target;
+        this.address = address;
+        this.width = width;
+        this.height = height;
+        this.quantity = quantity;
+        this.image = image;
+    }
+
+    public static ImageMessage parse(ByteBuffer message) {
+        ByteBuffer buffer = message.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Image message too short: " + buffer.remaining() + " bytes");
+        }
+        int version = buffer.get(start) & 0xff;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported image message version: " + version);
+        }
+        int target = buffer.get(start + 1) & 0xff;
+        if (target != TARGET_WIFI && target != TARGET_USB_DEFAULT && target != TARGET_USB_DEVICE) {
+            throw new IllegalArgumentException("Unknown printer target: " + target);
+        }
+        int addressLength = buffer.getShort(start + 2) & 0xffff;
+        int width = buffer.getInt(start + 4);
+        int height = buffer.getInt(start + 8);
+        int quantity = buffer.getInt(start + 12);
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Invalid quantity: " + quantity);
+        }
+        if (buffer.remaining() < HEADER_SIZE + addressLength) {
+            throw new IllegalArgumentException("Image message truncated in printer address");
+        }
+        byte[] address = new byte[addressLength];
+        buffer.position(start + HEADER_SIZE);
+        buffer.get(address);
+        return new ImageMessage(target, new String(address, UTF_8), width, height, Math.max(quantity, 1), buffer.slice());
+    }
+
+    // Key of the printer the image goes to, as PrinterTarget would build it
+    public String printerKey(UsbDeviceRegistry usbDevices) {
+        if (target == TARGET_WIFI) {
+            return "wifi:" + address;
+        }
+        return target == TARGET_USB_DEVICE ? "usb:" + address : PrinterTarget.defaultUsb(usbDevices).key;
+    }
+
+    // Replies are direct buffers positioned at their end, as BinaryMessenger expects
+    public static ByteBuffer successReply() {
+        ByteBuffer reply = ByteBuffer.allocateDirect(1);
+        reply.put((byte) 0);
+        return reply;
+    }
+
+    public static ByteBuffer errorReply(String code, String message) {
+        byte[] codeBytes = code.getBytes(UTF_8);
+        byte[] messageBytes = message != null ? message.getBytes(UTF_8) : new byte[0];
+        ByteBuffer reply = ByteBuffer.allocateDirect(2 + codeBytes.length + messageBytes.length);
+        reply.put((byte) 1);
+        reply.put(codeBytes);
+        reply.put((byte) 0);
+        reply.put(messageBytes);
+        return reply;
+    }
+
+    public String toString() {
+        return "ImageMessage{target=" + target + ", address='" + address + "', width=" + width
+                + ", height=" + height + ", quantity=" + quantity + ", imageBytes=" + image.remaining() + "}";
+    }
+}
@@ -0,0 +1,250 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+
+// On-device image preprocessing done before the SDK sees the image.
+// Decodes the image, scales it to the media width in printer dots and dithers it to
+// monochrome (Floyd-Steinberg, ordered 8x8 Bayer or plain threshold), then writes a minimal
+// 1-bit BMP. The printer receives exactly the dots it prints, instead of a full-colour image
+// the SDK has to scale and threshold itself.
+// Work buffers are kept between calls, so an instance must only be used by one thread.
+class ImagePreprocessor {
+    public static final String DITHER_FLOYD_STEINBERG = "floydSteinberg";
+    public static final String DITHER_ORDERED = "ordered";
+    public static final String DITHER_THRESHOLD = "threshold";
+
+    private static final int BMP_HEADER_SIZE = 62; // File header + info header + 2-colour palette
+    private static final int THRESHOLD = 128;
+
+    private static final int[] BAYER_8X8 = {
+            0, 32, 8, 40, 2, 34, 10, 42,
+            48, 16, 56, 24, 50, 18, 58, 26,
+            12, 44, 4, 36, 14, 46, 6, 38,
+            60, 28, 52, 20, 62, 30, 54, 22,
+            3, 35, 11, 43, 1, 33, 9, 41,
+            51, 19, 59, 27, 49, 17, 57, 25,
+            15, 47, 7, 39, 13, 45, 5, 37,
+            63, 31, 55, 23, 61, 29, 53, 21
+    };
+
+    // Preprocessing requested by Dart: {widthDots, dither}
+    static class Options {
+        public final int widthDots; // 0 keeps the image width
+        public final String dither;
+
+        public Options(int widthDots, String dither) {
+            this.widthDots = widthDots;
+            this.dither = dither != null ? dither : DITHER_FLOYD_STEINBERG;
+        }
+
+        // Returns null when no preprocessing is requested
+        public static Options fromMap(Map<String, Object> map) {
+            if (map == null) {
+                return null;
+            }
+            Object widthDots = map.get("widthDots");
+            return new Options(widthDots instanceof Number ? ((Number) widthDots).intValue() : 0, (String) map.get("dither"));
+        }
+    }
+
+    // 1-bit BMP produced by process(); data is a reused buffer valid until the next call
+    static class Result {
+        public byte[] data;
+        public int length;
+        public int width;
+        public int height;
+    }
+
+    private int[] pixels = new int[0];
+    private int[] gray = new int[0];
+    private int[] errorRows = new int[0];
+    private final Result result = new Result();
+
+    public ImagePreprocessor() {
+        result.data = new byte[0];
+    }
+
+    public Result process(byte[] imageBytes, Options options) {
+        Bitmap bitmap = decode(imageBytes, options.widthDots);
+        if (bitmap == null) {
+            throw new IllegalArgumentException("Unable to decode image");
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int count = width * height;
+        if (pixels.length < count) {
+            pixels = new int[count];
+            gray = new int[count];
+        }
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        bitmap.recycle();
+        dither(width, height, options.dither);
+        return result;
+    }
+
+    // Same for an image already decoded and scaled to ARGB pixels; this part needs no Android
+    // graphics, so it also runs on a plain JVM
+    Result process(int[] argb, int width, int height, String dither) {
+        int count = width * height;
+        if (pixels.length < count) {
+            pixels = new int[count];
+            gray = new int[count];
+        }
+        System.arraycopy(argb, 0, pixels, 0, count);
+        dither(width, height, dither);
+        return result;
+    }
+
+    // Dithers the first width * height pixels to 1 bit and writes them as a BMP into the result
+    private void dither(int width, int height, String dither) {
+        int count = width * height;
+        toGray(count);
+        if (DITHER_ORDERED.equals(dither)) {
+            ditherOrdered(width, height);
+        } else if (DITHER_THRESHOLD.equals(dither)) {
+            ditherThreshold(count);
+        } else {
+            ditherFloydSteinberg(width, height);
+        }
+        writeBmp(width, height);
+    }
+
+    // Decodes with the largest power-of-two subsampling that keeps the image at least as wide
+    // as the media, then scales to the exact media width
+    private Bitmap decode(byte[] imageBytes, int widthDots) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        decodeOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        decodeOptions.inSampleSize = 1;
+        if (widthDots > 0) {
+            while (bounds.outWidth / (decodeOptions.inSampleSize * 2) >= widthDots) {
+                decodeOptions.inSampleSize *= 2;
+            }
+        }
+        Bitmap decoded = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, decodeOptions);
+        if (decoded == null || widthDots <= 0 || decoded.getWidth() == widthDots) {
+            return decoded;
+        }
+        int scaledHeight = Math.max(1, Math.round((float) decoded.getHeight() * widthDots / decoded.getWidth()));
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, widthDots, scaledHeight, true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    // Luminance composited on white paper, 0 (black) to 255 (white)
+    private void toGray(int count) {
+        for (int i = 0; i < count; i++) {
+            int pixel = pixels[i];
+            int alpha = (pixel >>> 24) & 0xff;
+            int luminance = (((pixel >> 16) & 0xff) * 299 + ((pixel >> 8) & 0xff) * 587 + (pixel & 0xff) * 114) / 1000;
+            gray[i] = 255 - alpha * (255 - luminance) / 255;
+        }
+    }
+
+    private void ditherThreshold(int count) {
+        for (int i = 0; i < count; i++) {
+            gray[i] = gray[i] < THRESHOLD ? 0 : 255;
+        }
+    }
+
+    private void ditherOrdered(int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int matrixRow = (y & 7) * 8;
+            for (int x = 0; x < width; x++) {
+                int threshold = BAYER_8X8[matrixRow + (x & 7)] * 4 + 2;
+                gray[row + x] = gray[row + x] < threshold ? 0 : 255;
+            }
+        }
+    }
+
+    // Error diffusion with two rolling rows of accumulated error (scaled by 16)
+    private void ditherFloydSteinberg(int width, int height) {
+        int rowLength = width + 2;
+        if (errorRows.length < rowLength * 2) {
+            errorRows = new int[rowLength * 2];
+        }
+        Arrays.fill(errorRows, 0, rowLength * 2, 0);
+        int current = 0;
+        int next = rowLength;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int value = gray[row + x] + errorRows[current + x + 1] / 16;
+                int output = value < THRESHOLD ? 0 : 255;
+                int error = value - output;
+                gray[row + x] = output;
+                errorRows[current + x + 2] += error * 7;
+                errorRows[next + x] += error * 3;
+                errorRows[next + x + 1] += error * 5;
+                errorRows[next + x + 2] += error;
+            }
+            Arrays.fill(errorRows, current, current + rowLength, 0);
+            int swap = current;
+            current = next;
+            next = swap;
+        }
+    }
+
+    // Writes a bottom-up 1-bit BMP with a black/white palette into the reused result buffer
+    private void writeBmp(int width, int height) {
+        int rowSize = ((width + 31) / 32) * 4;
+        int imageSize = rowSize * height;
+        int fileSize = BMP_HEADER_SIZE + imageSize;
+        if (result.data.length < fileSize) {
+            result.data = new byte[fileSize];
+        }
+        byte[] out = result.data;
+        Arrays.fill(out, 0, fileSize, (byte) 0);
+
+        out[0] = 'B';
+        out[1] = 'M';
+        putInt(out, 2, fileSize);
+        putInt(out, 10, BMP_HEADER_SIZE);
+        putInt(out, 14, 40); // BITMAPINFOHEADER size
+        putInt(out, 18, width);
+        putInt(out, 22, height);
+        out[26] = 1; // Planes
+        out[28] = 1; // Bits per pixel
+        putInt(out, 34, imageSize);
+        putInt(out, 38, 11811); // 300 dpi in pixels per metre
+        putInt(out, 42, 11811);
+        putInt(out, 46, 2); // Colours used
+        // Palette: index 0 black, index 1 white
+        out[58] = (byte) 0xff;
+        out[59] = (byte) 0xff;
+        out[60] = (byte) 0xff;
+
+        for (int y = 0; y < height; y++) {
+            int source = y * width;
+            int target = BMP_HEADER_SIZE + (height - 1 - y) * rowSize;
+            for (int x = 0; x < width; x++) {
+                if (gray[source + x] != 0) {
+                    out[target + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+                }
+            }
+        }
+        result.length = fileSize;
+        result.width = width;
+        result.height = height;
+    }
+
+    private static void putInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >> 8);
+        out[offset + 2] = (byte) (value >> 16);
+        out[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,372 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+// Append-only journal of queued print jobs in app storage, so they survive the process being killed.
+// Submissions and outcomes are appended as length-prefixed, checksummed records, one sequential
+// write each. Images are stored once per content hash next to the journal and only read when a
+// replayed job is prepared, so replay reads nothing but the small records.
+// open() rewrites the journal with the unfinished jobs only (dropping a record torn by a crash)
+// and hands them back for resubmission under their original IDs. A job that printed before its
+// outcome was written is printed again. The journal is compacted the same way once
+// COMPACT_AFTER_FINISHED outcomes have accumulated.
+// All file work runs on a single journal thread, in the order it was requested.
+class JobJournal implements PrintJobQueue.JobListener {
+    static final String JOURNAL_KEY = "journal";
+    private static final String DIRECTORY = "citizen_journal";
+    private static final String JOURNAL_FILE = "jobs.journal";
+    private static final String IMAGES_DIRECTORY = "images";
+    private static final byte RECORD_SUBMITTED = 1;
+    private static final byte RECORD_ENDED = 2;
+    private static final int COMPACT_AFTER_FINISHED = 1024;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    // A journaled job: everything needed to prepare it again after a restart
+    static class Entry {
+        public final String jobId;
+        public final String targetType; // "wifi" or "usb"
+        public final String address; // IP address or USB device ID, empty for the default USB printer
+        public final int width;
+        public final int height;
+        public final ImagePreprocessor.Options preprocess; // Null if none
+        public final SettingsProfiles.Profile profile;
+        public final int quantity;
+        private String imageHash;
+
+        public Entry(String jobId, String targetType, String address, int width, int height,
+                     ImagePreprocessor.Options preprocess, SettingsProfiles.Profile profile, int quantity) {
+            this.jobId = jobId;
+            this.targetType = targetType;
+            this.address = address != null ? address : "";
+            this.width = width;
+            this.height = height;
+            this.preprocess = preprocess;
+            this.profile = profile;
+            this.quantity = quantity;
+        }
+
+        public String getImageHash() {
+            return imageHash;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(jobId);
+            out.writeUTF(targetType);
+            out.writeUTF(address);
+            out.writeUTF(imageHash);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(quantity);
+            out.writeBoolean(preprocess != null);
+            if (preprocess != null) {
+                out.writeInt(preprocess.widthDots);
+                out.writeUTF(preprocess.dither);
+            }
+            out.writeUTF(profile.name);
+            out.writeInt(profile.values.size());
+            for (Map.Entry<SettingsProfiles.Setting, Integer> value : profile.values.entrySet()) {
+                out.writeUTF(value.getKey().name);
+                out.writeInt(value.getValue());
+            }
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            String jobId = in.readUTF();
+            String targetType = in.readUTF();
+            String address = in.readUTF();
+            String imageHash = in.readUTF();
+            int width = in.readInt();
+            int height = in.readInt();
+            int quantity = in.readInt();
+            ImagePreprocessor.Options preprocess = null;
+            if (in.readBoolean()) {
+                int widthDots = in.readInt();
+                preprocess = new ImagePreprocessor.Options(widthDots, in.readUTF());
+            }
+            String profileName = in.readUTF();
+            int count = in.readInt();
+            Map<String, Object> values = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String setting = in.readUTF();
+                values.put(setting, in.readInt());
+            }
+            Entry entry = new Entry(jobId, targetType, address, width, height, preprocess,
+                    SettingsProfiles.Profile.fromMap(profileName, values), quantity);
+            entry.imageHash = imageHash;
+            return entry;
+        }
+    }
+
+    // Receives the unfinished jobs found by open(), on the main thread
+    interface ReplayHandler {
+        void onReplay(List<Entry> entries);
+    }
+
+    private final File directory;
+    private final File journalFile;
+    private final File imagesDirectory;
+    private final PrinterExecutors executors;
+    // Journal thread only
+    private final Map<String, Entry> live = new LinkedHashMap<>();
+    private DataOutputStream out;
+    private int endedRecords;
+    private boolean closing; // close() was called, the stream stays open for the live jobs' outcomes
+
+    public JobJournal(Context context, PrinterExecutors executors) {
+        this.directory = new File(context.getFilesDir(), DIRECTORY);
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.imagesDirectory = new File(directory, IMAGES_DIRECTORY);
+        this.executors = executors;
+    }
+
+    // Loads the journal, compacts it and passes the unfinished jobs to the handler
+    public void open(ReplayHandler handler) {
+        executors.forPrinter(JOURNAL_KEY).execute(() -> {
+            long startTime = System.nanoTime();
+            if (!imagesDirectory.exists() && !imagesDirectory.mkdirs()) {
+                System.err.println("Unable to create journal directory: " + imagesDirectory);
+                return;
+            }
+            load();
+            compact();
+            List<Entry> entries = new ArrayList<>(live.values());
+            System.out.println("Job journal loaded " + entries.size() + " unfinished jobs in "
+                    + (System.nanoTime() - startTime) / 1000000 + " ms");
+            executors.runOnMainThread(() -> handler.onReplay(entries));
+        });
+    }
+
+    // Journals a job before it is queued; the image is stored unless an identical one already is
+    public void recordSubmitted(Entry entry, byte[] imageBytes) {
+        executors.forPrinter(JOURNAL_KEY).execute(() -> {
+            if (out == null || closing) {
+                return;
+            }
+            try {
+                entry.imageHash = storeImage(imageBytes);
+                append(RECORD_SUBMITTED, entry::write);
+                live.put(entry.jobId, entry);
+            } catch (IOException e) {
+                System.err.println("Unable to journal job " + entry.jobId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void onJobEnded(String jobId, int result) {
+        executors.forPrinter(JOURNAL_KEY).execute(() -> {
+            if (out == null || live.remove(jobId) == null) {
+                return;
+            }
+            try {
+                append(RECORD_ENDED, data -> data.writeUTF(jobId));
+            } catch (IOException e) {
+                System.err.println("Unable to journal end of job " + jobId + ": " + e.getMessage());
+            }
+            if (++endedRecords >= COMPACT_AFTER_FINISHED) {
+                compact();
+            }
+            if (closing && live.isEmpty()) {
+                closeStream();
+            }
+        });
+    }
+
+    // Reads a journaled image; called when a replayed job is prepared
+    public byte[] readImage(String imageHash) throws IOException {
+        File file = new File(imagesDirectory, imageHash);
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    // Stops journaling new jobs. The journal is closed once the live jobs have ended, so the
+    // outcomes of jobs still draining from the queues are written and they are not replayed.
+    public void close() {
+        executors.forPrinter(JOURNAL_KEY).execute(() -> {
+            closing = true;
+            if (live.isEmpty()) {
+                closeStream();
+            } else {
+                System.out.println("Job journal closing after " + live.size() + " live jobs end");
+            }
+        });
+    }
+
+    private void closeStream() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Every record was already flushed
+            }
+            out = null;
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream data) throws IOException;
+    }
+
+    // Appends [length][crc][type + payload] and flushes it to the file in one write
+    private void append(byte type, RecordWriter writer) throws IOException {
+        writeRecord(out, type, writer);
+        out.flush();
+    }
+
+    private static void writeRecord(DataOutputStream stream, byte type, RecordWriter writer) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+        DataOutputStream data = new DataOutputStream(buffer);
+        data.writeByte(type);
+        writer.write(data);
+        byte[] payload = buffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        stream.writeInt(payload.length);
+        stream.writeInt((int) crc.getValue());
+        stream.write(payload);
+    }
+
+    // Replays the records into the live jobs, stopping at the first torn or corrupt record
+    private void load() {
+        live.clear();
+        if (!journalFile.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 64 * 1024));
+            try {
+                byte[] payload = new byte[256];
+                CRC32 crc = new CRC32();
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int checksum = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        System.err.println("Job journal corrupt, ignoring the rest of it");
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[length];
+                    }
+                    in.readFully(payload, 0, length);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        System.err.println("Job journal record failed its checksum, ignoring the rest of it");
+                        break;
+                    }
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+                    byte type = record.readByte();
+                    if (type == RECORD_SUBMITTED) {
+                        Entry entry = Entry.read(record);
+                        live.put(entry.jobId, entry);
+                    } else if (type == RECORD_ENDED) {
+                        live.remove(record.readUTF());
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (EOFException e) {
+            // Last record torn by a crash
+        } catch (IOException e) {
+            System.err.println("Unable to read job journal: " + e.getMessage());
+        }
+    }
+
+    // Rewrites the journal with the live jobs only, then deletes the images they do not use
+    private void compact() {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            File temp = new File(directory, JOURNAL_FILE + ".tmp");
+            FileOutputStream fos = new FileOutputStream(temp);
+            try {
+                DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+                for (Entry entry : live.values()) {
+                    writeRecord(stream, RECORD_SUBMITTED, entry::write);
+                }
+                stream.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            if (!temp.renameTo(journalFile)) {
+                throw new IOException("Unable to replace " + journalFile);
+            }
+            endedRecords = 0;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true), 8 * 1024));
+        } catch (IOException e) {
+            System.err.println("Unable to compact job journal: " + e.getMessage());
+            return;
+        }
+
+        Set<String> used = new HashSet<>();
+        for (Entry entry : live.values()) {
+            used.add(entry.imageHash);
+        }
+        File[] images = imagesDirectory.listFiles();
+        if (images != null) {
+            for (File image : images) {
+                if (!used.contains(image.getName())) {
+                    image.delete();
+                }
+            }
+        }
+    }
+
+    // Stores the image under its content hash, written to a temporary file and renamed so a crash
+    // never leaves a partial image behind
+    private String storeImage(byte[] imageBytes) throws IOException {
+        String hash = SpoolManager.contentHash(imageBytes, 0, imageBytes.length);
+        File file = new File(imagesDirectory, hash);
+        if (file.exists()) {
+            return hash;
+        }
+        File temp = new File(imagesDirectory, UUID.randomUUID().toString() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            fos.write(imageBytes);
+        } finally {
+            fos.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to store journal image " + file);
+        }
+        return hash;
+    }
+}
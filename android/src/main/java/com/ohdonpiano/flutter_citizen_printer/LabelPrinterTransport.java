@@ -0,0 +1,189 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.content.Context;
+
+import com.citizen.sdk.labelprint.CitizenPrinterInfo;
+import com.citizen.sdk.labelprint.LabelConst;
+import com.citizen.sdk.labelprint.LabelDesign;
+import com.citizen.sdk.labelprint.LabelPrinter;
+
+// PrinterTransport over the Citizen SDK's LabelPrinter
+class LabelPrinterTransport implements PrinterTransport {
+    private final LabelPrinter printer = new LabelPrinter();
+
+    public LabelPrinterTransport(Context context) {
+        printer.setContext(context);
+    }
+
+    public static Factory factory(Context context) {
+        return () -> new LabelPrinterTransport(context);
+    }
+
+    @Override
+    public CitizenPrinterInfo[] searchCitizenPrinter(int portType, int timeout, int[] result) {
+        return printer.searchCitizenPrinter(portType, timeout, result);
+    }
+
+    @Override
+    public String[] searchLabelPrinter(int portType, int timeout, int[] result) {
+        return printer.searchLabelPrinter(portType, timeout, result);
+    }
+
+    @Override
+    public int connect(PrinterTarget target) {
+        if (target.portType == LabelConst.CLS_PORT_WiFi) {
+            return printer.connect(target.portType, target.ipAddress);
+        }
+        return printer.connect(target.portType, target.usbDevice);
+    }
+
+    @Override
+    public int disconnect() {
+        return printer.disconnect();
+    }
+
+    @Override
+    public int printerCheck() {
+        return printer.printerCheck();
+    }
+
+    @Override
+    public int getPaperError() {
+        return printer.getPaperError();
+    }
+
+    @Override
+    public int getRibbonEnd() {
+        return printer.getRibbonEnd();
+    }
+
+    @Override
+    public int getPause() {
+        return printer.getPause();
+    }
+
+    @Override
+    public int getPrinting() {
+        return printer.getPrinting();
+    }
+
+    @Override
+    public int getWaitingForPeeling() {
+        return printer.getWaitingForPeeling();
+    }
+
+    @Override
+    public int print(LabelDesign design, int copies) {
+        return printer.print(design, copies);
+    }
+
+    @Override
+    public int storeNVBitmap(String path, String name, int rotation, int width, int height) {
+        return printer.storeNVBitmap(path, name, rotation, width, height);
+    }
+
+    @Override
+    public int getMeasurementUnit() {
+        return printer.getMeasurementUnit();
+    }
+
+    @Override
+    public int setContinuousMediaLength(int length) {
+        return printer.setContinuousMediaLength(length);
+    }
+
+    @Override
+    public int getContinuousMediaLength() {
+        return printer.getContinuousMediaLength();
+    }
+
+    @Override
+    public int setMediaHandling(int mediaHandling) {
+        return printer.setMediaHandling(mediaHandling);
+    }
+
+    @Override
+    public int getMediaHandling() {
+        return printer.getMediaHandling();
+    }
+
+    @Override
+    public int setLabelSensor(int sensor) {
+        return printer.setLabelSensor(sensor);
+    }
+
+    @Override
+    public int getLabelSensor() {
+        return printer.getLabelSensor();
+    }
+
+    @Override
+    public int setPrintSpeed(int speed) {
+        return printer.setPrintSpeed(speed);
+    }
+
+    @Override
+    public int getPrintSpeed() {
+        return printer.getPrintSpeed();
+    }
+
+    @Override
+    public int setFeedSpeed(int speed) {
+        return printer.setFeedSpeed(speed);
+    }
+
+    @Override
+    public int getFeedSpeed() {
+        return printer.getFeedSpeed();
+    }
+
+    @Override
+    public int setPrintDarkness(int darkness) {
+        return printer.setPrintDarkness(darkness);
+    }
+
+    @Override
+    public int getPrintDarkness() {
+        return printer.getPrintDarkness();
+    }
+
+    @Override
+    public int setVerticalOffset(int offset) {
+        return printer.setVerticalOffset(offset);
+    }
+
+    @Override
+    public int getVerticalOffset() {
+        return printer.getVerticalOffset();
+    }
+
+    @Override
+    public int setHorizontalOffset(int offset) {
+        return printer.setHorizontalOffset(offset);
+    }
+
+    @Override
+    public int getHorizontalOffset() {
+        return printer.getHorizontalOffset();
+    }
+
+    @Override
+    public int setStartOffset(int offset) {
+        return printer.setStartOffset(offset);
+    }
+
+    @Override
+    public int getStartOffset() {
+        return printer.getStartOffset();
+    }
+
+    @Override
+    public int setStopOffset(int offset) {
+        return printer.setStopOffset(offset);
+    }
+
+    @Override
+    public int getStopOffset() {
+        return printer.getStopOffset();
+    }
+}
@@ -0,0 +1,234 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.LabelConst;
+import com.citizen.sdk.labelprint.LabelDesign;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Vector label template built from LabelDesign primitives instead of a rasterized image.
+// A template is parsed once from the element maps sent by Dart and cached by ID; text data may
+// contain {{field}} placeholders, so each print only ships the variable field values.
+// Recurring images (nvBitmap elements) are kept in the printer's NV memory by NvBitmapManager.
+class LabelTemplate {
+
+    // One drawing command of the template
+    private interface Element {
+        int draw(LabelDesign design, Map<String, String> fields, Map<String, String> nvNames);
+    }
+
+    // Image referenced by an nvBitmap element, stored on each printer before its first use
+    private static class NvImage {
+        public final String hash;
+        public final byte[] imageBytes;
+        public final int width;
+        public final int height;
+
+        public NvImage(byte[] imageBytes, int width, int height) {
+            this.hash = NvBitmapManager.hash(imageBytes);
+            this.imageBytes = imageBytes;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    // Text with {{field}} placeholders, split once into literal and field parts
+    private static class FieldText {
+        private final List<String> parts = new ArrayList<>(); // Even indexes are literals, odd are field names
+
+        public FieldText(String text) {
+            int start = 0;
+            while (true) {
+                int open = text.indexOf("{{", start);
+                int close = open >= 0 ? text.indexOf("}}", open + 2) : -1;
+                if (open < 0 || close < 0) {
+                    parts.add(text.substring(start));
+                    return;
+                }
+                parts.add(text.substring(start, open));
+                parts.add(text.substring(open + 2, close).trim());
+                start = close + 2;
+            }
+        }
+
+        public String resolve(Map<String, String> fields) {
+            if (parts.size() == 1) {
+                return parts.get(0);
+            }
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < parts.size(); i++) {
+                if (i % 2 == 0) {
+                    builder.append(parts.get(i));
+                } else {
+                    String value = fields != null ? fields.get(parts.get(i)) : null;
+                    builder.append(value != null ? value : "");
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    private final List<Element> elements;
+    private final List<NvImage> nvImages;
+
+    private LabelTemplate(List<Element> elements, List<NvImage> nvImages) {
+        this.elements = elements;
+        this.nvImages = nvImages;
+    }
+
+    // Parses the element maps sent by Dart; throws IllegalArgumentException on unknown or incomplete elements
+    public static LabelTemplate parse(List<Map<String, Object>> definitions) {
+        if (definitions == null || definitions.isEmpty()) {
+            throw new IllegalArgumentException("Template has no elements");
+        }
+        List<Element> elements = new ArrayList<>();
+        List<NvImage> nvImages = new ArrayList<>();
+        for (Map<String, Object> definition : definitions) {
+            elements.add(parseElement(definition, nvImages));
+        }
+        return new LabelTemplate(elements, nvImages);
+    }
+
+    // Builds the design on a connected printer: stores missing NV images, then draws every element,
+    // stopping at the first SDK error
+    public int draw(LabelDesign design, Map<String, String> fields, NvBitmapManager nvBitmapManager, PrinterTransport printer, String printerKey) {
+        Map<String, String> nvNames = new HashMap<>();
+        int[] err = new int[1];
+        for (NvImage image : nvImages) {
+            String name = nvBitmapManager.ensureStored(printer, printerKey, image.hash, image.imageBytes, image.width, image.height, err);
+            if (name == null) {
+                return err[0];
+            }
+            nvNames.put(image.hash, name);
+        }
+        for (NvImage image : nvImages) {
+            // A template with more images than NV slots would overwrite its own images
+            if (!nvBitmapManager.isStored(printerKey, image.hash)) {
+                System.err.println("Template needs more NV bitmaps than " + printerKey + " can hold");
+                return LabelConst.CLS_E_ILLEGAL;
+            }
+        }
+        for (Element element : elements) {
+            int r = element.draw(design, fields, nvNames);
+            if (r != LabelConst.CLS_SUCCESS) {
+                return r;
+            }
+        }
+        return LabelConst.CLS_SUCCESS;
+    }
+
+    private static Element parseElement(Map<String, Object> definition, List<NvImage> nvImages) {
+        String type = (String) definition.get("type");
+        if (type == null) {
+            throw new IllegalArgumentException("Template element without type");
+        }
+        switch (type) {
+            case "text": {
+                FieldText data = text(definition, "data");
+                int locale = integer(definition, "locale", LabelConst.CLS_LOCALE_OTHER);
+                int font = integer(definition, "font", LabelConst.CLS_PRT_FNT_TRIUMVIRATE);
+                int rotation = integer(definition, "rotation", LabelConst.CLS_RT_NORMAL);
+                int hexp = integer(definition, "hexp", 1);
+                int vexp = integer(definition, "vexp", 1);
+                int size = integer(definition, "size", LabelConst.CLS_PRT_FNT_SIZE_10);
+                int x = integer(definition, "x");
+                int y = integer(definition, "y");
+                return (design, fields, nvNames) -> design.drawTextPtrFont(data.resolve(fields), locale, font, rotation, hexp, vexp, size, x, y);
+            }
+            case "barcode": {
+                FieldText data = text(definition, "data");
+                int symbology = integer(definition, "symbology", LabelConst.CLS_BCS_CODE128);
+                int rotation = integer(definition, "rotation", LabelConst.CLS_RT_NORMAL);
+                int thick = integer(definition, "thick", 6);
+                int narrow = integer(definition, "narrow", 2);
+                int height = integer(definition, "height");
+                int x = integer(definition, "x");
+                int y = integer(definition, "y");
+                int showText = integer(definition, "showText", LabelConst.CLS_BCS_TEXT_SHOW);
+                return (design, fields, nvNames) -> design.drawBarCode(data.resolve(fields), symbology, rotation, thick, narrow, height, x, y, showText);
+            }
+            case "qrCode": {
+                FieldText data = text(definition, "data");
+                int encoding = integer(definition, "encoding", LabelConst.CLS_ENC_CDPG_UTF_8);
+                int rotation = integer(definition, "rotation", LabelConst.CLS_RT_NORMAL);
+                int exp = integer(definition, "exp", 4);
+                int ecLevel = integer(definition, "ecLevel", LabelConst.CLS_QRCODE_EC_LEVEL_M);
+                int x = integer(definition, "x");
+                int y = integer(definition, "y");
+                return (design, fields, nvNames) -> design.drawQRCode(data.resolve(fields), encoding, rotation, exp, ecLevel, x, y);
+            }
+            case "dataMatrix": {
+                FieldText data = text(definition, "data");
+                int encoding = integer(definition, "encoding", LabelConst.CLS_ENC_CDPG_UTF_8);
+                int rotation = integer(definition, "rotation", LabelConst.CLS_RT_NORMAL);
+                int exp = integer(definition, "exp", 4);
+                int ecLevel = integer(definition, "ecLevel", LabelConst.CLS_DATAMATRIX_EC_LEVEL_200);
+                int x = integer(definition, "x");
+                int y = integer(definition, "y");
+                return (design, fields, nvNames) -> design.drawDataMatrix(data.resolve(fields), encoding, rotation, exp, ecLevel, x, y);
+            }
+            case "rect": {
+                int x = integer(definition, "x");
+                int y = integer(definition, "y");
+                int width = integer(definition, "width");
+                int height = integer(definition, "height");
+                int thickness = integer(definition, "thickness", 1);
+                return (design, fields, nvNames) -> design.drawRect(x, y, width, height, thickness);
+            }
+            case "fillRect": {
+                int x = integer(definition, "x");
+                int y = integer(definition, "y");
+                int width = integer(definition, "width");
+                int height = integer(definition, "height");
+                int pattern = integer(definition, "pattern");
+                return (design, fields, nvNames) -> design.fillRect(x, y, width, height, pattern);
+            }
+            case "line": {
+                int x1 = integer(definition, "x1");
+                int y1 = integer(definition, "y1");
+                int x2 = integer(definition, "x2");
+                int y2 = integer(definition, "y2");
+                int thickness = integer(definition, "thickness", 1);
+                return (design, fields, nvNames) -> design.drawLine(x1, y1, x2, y2, thickness);
+            }
+            case "nvBitmap": {
+                Object imageBytes = definition.get("imageBytes");
+                if (!(imageBytes instanceof byte[])) {
+                    throw new IllegalArgumentException("Template element nvBitmap requires imageBytes");
+                }
+                NvImage image = new NvImage((byte[]) imageBytes, integer(definition, "width", 0), integer(definition, "height", 0));
+                nvImages.add(image);
+                int hexp = integer(definition, "hexp", 1);
+                int vexp = integer(definition, "vexp", 1);
+                int x = integer(definition, "x");
+                int y = integer(definition, "y");
+                return (design, fields, nvNames) -> design.drawNVBitmap(nvNames.get(image.hash), hexp, vexp, x, y);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown template element type: " + type);
+        }
+    }
+
+    private static FieldText text(Map<String, Object> definition, String name) {
+        Object value = definition.get(name);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Template element " + definition.get("type") + " requires " + name);
+        }
+        return new FieldText((String) value);
+    }
+
+    private static int integer(Map<String, Object> definition, String name) {
+        Object value = definition.get(name);
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Template element " + definition.get("type") + " requires " + name);
+        }
+        return ((Number) value).intValue();
+    }
+
+    private static int integer(Map<String, Object> definition, String name, int defaultValue) {
+        Object value = definition.get(name);
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+}
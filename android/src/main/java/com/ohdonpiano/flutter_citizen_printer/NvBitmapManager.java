@@ -0,0 +1,119 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.LabelConst;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps recurring images (logos, pictograms) in the printer's non-volatile memory.
+// Images are identified by a content hash and uploaded with storeNVBitmap only the first time a
+// printer needs them; later labels reference the stored name with drawNVBitmap.
+// Each printer has a fixed number of NV slots: when they are all used, the least recently used
+// image is evicted and its slot name is overwritten by the new image.
+// Registries are only touched on the printer's executor thread.
+class NvBitmapManager {
+    public static final int DEFAULT_CAPACITY = 8;
+    private static final String SLOT_NAME_PREFIX = "CPNV";
+
+    // Image hash -> NV slot name, in least recently used order
+    private static class Registry {
+        public final LinkedHashMap<String, String> slots = new LinkedHashMap<>(16, 0.75f, true);
+        public int capacity;
+
+        public Registry(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    private final SpoolManager spoolManager;
+    private final Map<String, Registry> registries = new ConcurrentHashMap<>();
+    private final Map<String, Integer> capacities = new ConcurrentHashMap<>();
+
+    public NvBitmapManager(SpoolManager spoolManager) {
+        this.spoolManager = spoolManager;
+    }
+
+    // Number of NV images the printer can hold; applies from the printer's next job
+    public void setCapacity(String printerKey, int capacity) {
+        capacities.put(printerKey, Math.max(1, capacity));
+    }
+
+    // Returns the NV name of the image on the printer, uploading it first if needed.
+    // Returns null and sets err[0] if the upload fails.
+    public String ensureStored(PrinterTransport printer, String printerKey, String hash, byte[] imageBytes, int width, int height, int[] err) {
+        Registry registry = registryFor(printerKey);
+        String name = registry.slots.get(hash);
+        if (name != null) {
+            return name;
+        }
+
+        name = nextSlotName(registry);
+        SpoolManager.SpoolFile spoolFile = null;
+        try {
+            spoolFile = spoolManager.acquire(imageBytes, "png");
+            int r = printer.storeNVBitmap(spoolFile.getPath(), name, LabelConst.CLS_RT_NORMAL, width, height);
+            if (r != LabelConst.CLS_SUCCESS) {
+                System.err.println("Error storing NV bitmap " + name + " on " + printerKey + ": " + r);
+                err[0] = r;
+                return null;
+            }
+        } catch (Exception e) {
+            System.err.println("Error storing NV bitmap " + name + " on " + printerKey + ": " + e.getMessage());
+            err[0] = -1;
+            return null;
+        } finally {
+            if (spoolFile != null) {
+                spoolManager.release(spoolFile);
+            }
+        }
+        System.out.println("Stored NV bitmap " + name + " on " + printerKey);
+        registry.slots.put(hash, name);
+        return name;
+    }
+
+    public boolean isStored(String printerKey, String hash) {
+        Registry registry = registries.get(printerKey);
+        return registry != null && registry.slots.containsKey(hash);
+    }
+
+    public static String hash(byte[] imageBytes) {
+        return SpoolManager.contentHash(imageBytes, 0, imageBytes.length);
+    }
+
+    private Registry registryFor(String printerKey) {
+        Integer capacity = capacities.get(printerKey);
+        Registry registry = registries.get(printerKey);
+        if (registry == null) {
+            registry = new Registry(capacity != null ? capacity : DEFAULT_CAPACITY);
+            registries.put(printerKey, registry);
+        } else if (capacity != null) {
+            registry.capacity = capacity;
+        }
+        return registry;
+    }
+
+    // Picks a free slot, or evicts the least recently used image and reuses its slot
+    private String nextSlotName(Registry registry) {
+        while (registry.slots.size() > registry.capacity) {
+            Iterator<String> iterator = registry.slots.values().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+        if (registry.slots.size() == registry.capacity) {
+            Iterator<String> iterator = registry.slots.values().iterator();
+            String evicted = iterator.next();
+            iterator.remove();
+            return evicted;
+        }
+        // Lowest slot number not in use
+        for (int slot = 0; ; slot++) {
+            String name = String.format(Locale.US, "%s%02d", SLOT_NAME_PREFIX, slot);
+            if (!registry.slots.containsValue(name)) {
+                return name;
+            }
+        }
+    }
+}
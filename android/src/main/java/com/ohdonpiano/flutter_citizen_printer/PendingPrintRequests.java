@@ -0,0 +1,51 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Prints waiting for the answer to a USB permission prompt, by device ID. A device has one
+// prompt open at a time, whichever engine asked: prints arriving meanwhile join its list and
+// all resume on the answer.
+// Each list is locked only against its own take(), so different devices never contend.
+class PendingPrintRequests {
+    private final Map<String, List<PrinterService.PendingPrintRequest>> waiting = new ConcurrentHashMap<>();
+
+    // Adds a print to the device's list; returns true if the list is new and a permission prompt
+    // must be opened
+    public boolean add(String deviceId, PrinterService.PendingPrintRequest request) {
+        while (true) {
+            List<PrinterService.PendingPrintRequest> created = new ArrayList<>();
+            created.add(request);
+            List<PrinterService.PendingPrintRequest> existing = waiting.putIfAbsent(deviceId, created);
+            if (existing == null) {
+                return true;
+            }
+            synchronized (existing) {
+                // The list may have been taken by an answer in the meantime: then start a new one
+                if (waiting.get(deviceId) == existing) {
+                    existing.add(request);
+                    return false;
+                }
+            }
+        }
+    }
+
+    // Removes and returns the prints waiting for the device's permission prompt
+    public List<PrinterService.PendingPrintRequest> take(String deviceId) {
+        List<PrinterService.PendingPrintRequest> taken = waiting.remove(deviceId);
+        if (taken == null) {
+            return Collections.emptyList();
+        }
+        synchronized (taken) {
+            return new ArrayList<>(taken);
+        }
+    }
+
+    public Set<String> deviceIds() {
+        return waiting.keySet();
+    }
+}
@@ -0,0 +1,309 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.LabelConst;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Asynchronous print job queue.
+// submit() returns a job ID immediately and enqueues the job on the printer's serial executor.
+// Each printer accepts at most MAX_QUEUED_JOBS_PER_PRINTER jobs in flight; state changes
+// (queued, connecting, sending, printed, failed) are streamed to Dart through an EventBroadcaster.
+// Jobs run through the RetryPolicy, so they are retried on transient errors and fail fast while
+// the printer's circuit breaker is open.
+// Each printer has a two-stage pipeline: a prepare thread does the work that needs no printer
+// (decoding, spooling, building the label design) and hands the result to the printer thread,
+// which only transmits. While label N is being sent, label N+1 is already being prepared. The
+// handoff holds at most PIPELINE_DEPTH prepared labels, so the prepare thread never runs far
+// ahead, and both stages take jobs in submission order.
+// A job submitted with a coalesce key equal to the key of the job queued just before it on the
+// same printer, still waiting to be prepared, is merged into that job: the label is prepared and
+// sent once with the sum of their quantities, and each merged job still gets its own events.
+class PrintJobQueue {
+    public static final int MAX_QUEUED_JOBS_PER_PRINTER = 256;
+    public static final int PIPELINE_DEPTH = 2;
+    private static final String PREPARE_KEY_PREFIX = "prepare:";
+    private static final long HANDOFF_POLL_MS = 100; // How often a waiting stage checks for shutdown
+
+    public static final String STATE_QUEUED = "queued";
+    public static final String STATE_CONNECTING = "connecting";
+    public static final String STATE_SENDING = "sending";
+    public static final String STATE_PRINTED = "printed";
+    public static final String STATE_FAILED = "failed";
+
+    // Called on the printer thread when a job fails; returns true if the job was handed to
+    // another printer, in which case no failed event is sent
+    interface FailureHandler {
+        boolean onFailed(int error);
+    }
+
+    // Called on the printer thread once a job has printed or failed for good
+    interface JobListener {
+        void onJobEnded(String jobId, int result);
+    }
+
+    // A print job split into its pipeline stages
+    interface LabelJob {
+        // Runs on the prepare thread, without the printer; the label is printed quantity times
+        PreparedLabel prepare(int quantity) throws Exception;
+    }
+
+    // A prepared label: transmit() runs on the printer thread, once per attempt; release() runs
+    // once when the job is done
+    interface PreparedLabel {
+        int transmit(PrinterTransport printer) throws Exception;
+
+        void release();
+    }
+
+    // A submitted job and the quantity it asked for
+    private static class Member {
+        public final String jobId;
+        public final int quantity;
+        public final FailureHandler failureHandler;
+
+        public Member(String jobId, int quantity, FailureHandler failureHandler) {
+            this.jobId = jobId;
+            this.quantity = quantity;
+            this.failureHandler = failureHandler;
+        }
+    }
+
+    // A label waiting in a printer's pipeline and the jobs merged into it. Members are only added
+    // before the prepare stage starts, under the printer's handoff lock.
+    private static class QueuedJob {
+        public final LabelJob job;
+        public final Object coalesceKey; // Null if the job never merges
+        public final List<Member> members = new ArrayList<>(1);
+        public int quantity;
+        public boolean started;
+
+        public QueuedJob(LabelJob job, Object coalesceKey) {
+            this.job = job;
+            this.coalesceKey = coalesceKey;
+        }
+
+        public void add(Member member) {
+            members.add(member);
+            quantity += member.quantity;
+        }
+    }
+
+    // Outcome of the prepare stage handed to the printer thread
+    private static class Prepared {
+        public final PreparedLabel label;
+        public final int error;
+
+        public Prepared(PreparedLabel label, int error) {
+            this.label = label;
+            this.error = error;
+        }
+    }
+
+    private final PrinterExecutors executors;
+    private final RetryPolicy retryPolicy;
+    private final EventBroadcaster jobEvents;
+    private final PrintMetrics metrics;
+    private final JobListener jobListener;
+    private final Map<String, AtomicInteger> queueDepths = new ConcurrentHashMap<>();
+    private final Map<String, BlockingQueue<Prepared>> handoffs = new ConcurrentHashMap<>();
+    // Last job queued on each printer, the only one a new job can merge into; guarded by the handoff
+    private final Map<String, QueuedJob> tails = new ConcurrentHashMap<>();
+
+    public PrintJobQueue(PrinterExecutors executors, RetryPolicy retryPolicy, EventBroadcaster jobEvents, PrintMetrics metrics,
+                         JobListener jobListener) {
+        this.executors = executors;
+        this.retryPolicy = retryPolicy;
+        this.jobEvents = jobEvents;
+        this.metrics = metrics;
+        this.jobListener = jobListener;
+    }
+
+    // Enqueues quantity copies of the label under the job ID; returns false if the printer's queue
+    // is full. Jobs with equal non-null coalesce keys describe the same label.
+    public boolean submit(PrinterTarget target, LabelJob job, int quantity, Object coalesceKey, String jobId, FailureHandler failureHandler) {
+        AtomicInteger depth = depthFor(target.key);
+        if (depth.incrementAndGet() > MAX_QUEUED_JOBS_PER_PRINTER) {
+            depth.decrementAndGet();
+            return false;
+        }
+
+        sendEvent(jobId, target, STATE_QUEUED, null);
+        Member member = new Member(jobId, quantity, failureHandler);
+        BlockingQueue<Prepared> handoff = handoffFor(target.key);
+        // Both stages must see jobs in the same order: the Nth transmit takes the Nth prepared label
+        synchronized (handoff) {
+            QueuedJob tail = tails.get(target.key);
+            if (coalesceKey != null && tail != null && !tail.started && coalesceKey.equals(tail.coalesceKey)) {
+                tail.add(member);
+                return true;
+            }
+            QueuedJob queued = new QueuedJob(job, coalesceKey);
+            queued.add(member);
+            tails.put(target.key, queued);
+            executors.forPrinter(PREPARE_KEY_PREFIX + target.key).execute(() -> prepare(target, queued, handoff));
+            executors.forPrinter(target.key).execute(() -> transmit(target, queued, depth, handoff));
+        }
+        return true;
+    }
+
+    // Prepare stage; waits while PIPELINE_DEPTH labels are ready and not yet transmitted
+    private void prepare(PrinterTarget target, QueuedJob queued, BlockingQueue<Prepared> handoff) {
+        int quantity;
+        synchronized (handoff) {
+            // No more jobs can merge into this one
+            queued.started = true;
+            tails.remove(target.key, queued);
+            quantity = queued.quantity;
+        }
+        // A label that cannot be prepared (e.g. an undecodable image) would fail on any printer:
+        // it is reported as an error of the job itself, not as a transient failure
+        Prepared prepared = new Prepared(null, LabelConst.CLS_E_ILLEGAL);
+        metrics.setCurrentPrinter(target.key);
+        try {
+            prepared = new Prepared(queued.job.prepare(quantity), LabelConst.CLS_SUCCESS);
+        } catch (Exception e) {
+            System.err.println("Error preparing label for " + target + ": " + e.getMessage());
+        } finally {
+            metrics.setCurrentPrinter(null);
+            // Every prepare hands over exactly one item, even on errors, or the printer thread
+            // would wait for it until shutdown
+            if (!putPrepared(handoff, prepared) && prepared.label != null) {
+                prepared.label.release();
+            }
+        }
+    }
+
+    // Transmit stage, on the printer thread. The members were fixed when the prepare stage started.
+    private void transmit(PrinterTarget target, QueuedJob queued, AtomicInteger depth, BlockingQueue<Prepared> handoff) {
+        int res;
+        boolean prepareFailed = false;
+        Prepared prepared = null;
+        try {
+            prepared = takePrepared(handoff);
+            if (prepared == null) {
+                // Stopped while the label was being prepared: the jobs stay unfinished in the
+                // journal and are resumed on the next start
+                System.err.println("Print queue for " + target + " stopped before its label was prepared");
+                return;
+            }
+            sendEvents(queued, target, STATE_CONNECTING);
+            PreparedLabel label = prepared.label;
+            if (label == null) {
+                // Never sent: the printer's breaker and failover are left out of it
+                res = prepared.error;
+                prepareFailed = true;
+            } else {
+                res = retryPolicy.execute(target, printer -> {
+                    sendEvents(queued, target, STATE_SENDING);
+                    return label.transmit(printer);
+                });
+            }
+        } finally {
+            if (prepared != null && prepared.label != null) {
+                prepared.label.release();
+            }
+            depth.addAndGet(-queued.members.size());
+        }
+        for (Member member : queued.members) {
+            if (res == LabelConst.CLS_SUCCESS) {
+                sendEvent(member.jobId, target, STATE_PRINTED, null);
+            } else if (prepareFailed || member.failureHandler == null || !member.failureHandler.onFailed(res)) {
+                sendEvent(member.jobId, target, STATE_FAILED, res);
+            } else {
+                // Handed to another printer, still running
+                continue;
+            }
+            jobListener.onJobEnded(member.jobId, res);
+        }
+    }
+
+    private void sendEvents(QueuedJob queued, PrinterTarget target, String state) {
+        for (Member member : queued.members) {
+            sendEvent(member.jobId, target, state, null);
+        }
+    }
+
+    // Hands a prepared label to the printer thread; returns false if the thread is interrupted
+    // or the executors drop their work while waiting for room
+    private boolean putPrepared(BlockingQueue<Prepared> handoff, Prepared prepared) {
+        try {
+            while (!handoff.offer(prepared, HANDOFF_POLL_MS, TimeUnit.MILLISECONDS)) {
+                if (executors.isDropping()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Waits for the next prepared label; returns null if the printer thread is interrupted or the
+    // executors drop their work while it waits, as the label may then never come
+    private Prepared takePrepared(BlockingQueue<Prepared> handoff) {
+        try {
+            while (true) {
+                Prepared prepared = handoff.poll(HANDOFF_POLL_MS, TimeUnit.MILLISECONDS);
+                if (prepared != null) {
+                    return prepared;
+                }
+                if (executors.isDropping()) {
+                    return null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Number of jobs queued or running on the printer
+    public int queueDepth(String printerKey) {
+        AtomicInteger depth = queueDepths.get(printerKey);
+        return depth != null ? depth.get() : 0;
+    }
+
+    private AtomicInteger depthFor(String printerKey) {
+        AtomicInteger depth = queueDepths.get(printerKey);
+        if (depth == null) {
+            AtomicInteger created = new AtomicInteger();
+            depth = queueDepths.putIfAbsent(printerKey, created);
+            if (depth == null) {
+                depth = created;
+            }
+        }
+        return depth;
+    }
+
+    private BlockingQueue<Prepared> handoffFor(String printerKey) {
+        BlockingQueue<Prepared> handoff = handoffs.get(printerKey);
+        if (handoff == null) {
+            BlockingQueue<Prepared> created = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+            handoff = handoffs.putIfAbsent(printerKey, created);
+            if (handoff == null) {
+                handoff = created;
+            }
+        }
+        return handoff;
+    }
+
+    private void sendEvent(String jobId, PrinterTarget target, String state, Integer error) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("jobId", jobId);
+        event.put("printer", target.key);
+        event.put("state", state);
+        if (error != null) {
+            event.put("error", error);
+        }
+        jobEvents.send(event);
+    }
+}
@@ -0,0 +1,213 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Latency histograms and counters for every stage of the print and discovery paths, per printer.
+// Recording is allocation-free: each sample increments one bucket of a fixed log-linear histogram
+// (4 buckets per power of two, so percentiles are accurate to within 25%).
+// Code running inside PrinterConnectionPool.execute() records against the printer being used
+// without having to know it: the pool marks the current printer on its thread.
+class PrintMetrics {
+    public static final int STAGE_CONNECT = 0;
+    public static final int STAGE_SPOOL = 1;
+    public static final int STAGE_DRAW = 2;
+    public static final int STAGE_PRINT = 3;
+    public static final int STAGE_DISCONNECT = 4;
+    public static final int STAGE_JOB = 5; // Whole job including retries
+    public static final int STAGE_DISCOVERY = 6;
+    public static final int STAGE_PREPROCESS = 7;
+    private static final String[] STAGE_NAMES = {"connect", "spool", "draw", "print", "disconnect", "job", "discovery", "preprocess"};
+
+    private static final int BUCKETS = 160; // Covers up to 2^40 microseconds
+
+    // Log-linear histogram of durations in microseconds
+    private static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long micros) {
+            buckets.incrementAndGet(bucketOf(micros));
+            count.incrementAndGet();
+            sum.addAndGet(micros);
+            long currentMax;
+            while (micros > (currentMax = max.get()) && !max.compareAndSet(currentMax, micros)) {
+                // Retry until max is at least micros
+            }
+        }
+
+        // Upper bound of the bucket holding the given percentile, in microseconds
+        public long percentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        public Map<String, Object> toMap() {
+            long total = count.get();
+            Map<String, Object> map = new HashMap<>();
+            map.put("count", total);
+            map.put("meanMs", total > 0 ? sum.get() / 1000.0 / total : 0.0);
+            map.put("p50Ms", percentile(50) / 1000.0);
+            map.put("p95Ms", percentile(95) / 1000.0);
+            map.put("p99Ms", percentile(99) / 1000.0);
+            map.put("maxMs", max.get() / 1000.0);
+            return map;
+        }
+
+        private static int bucketOf(long micros) {
+            if (micros < 4) {
+                return (int) Math.max(0, micros);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int index = 4 + (exponent - 2) * 4 + (int) ((micros >> (exponent - 2)) & 3);
+            return Math.min(index, BUCKETS - 1);
+        }
+
+        private static long upperBoundOf(int index) {
+            if (index < 4) {
+                return index;
+            }
+            int exponent = (index - 4) / 4 + 2;
+            int sub = (index - 4) % 4;
+            return ((5L + sub) << (exponent - 2)) - 1;
+        }
+    }
+
+    private static class PrinterMetrics {
+        public final Histogram[] stages = new Histogram[STAGE_NAMES.length];
+        public final AtomicLong labels = new AtomicLong();
+        public final AtomicLong errors = new AtomicLong();
+        public final AtomicLong bytesSent = new AtomicLong();
+        public final long since = System.currentTimeMillis();
+
+        public PrinterMetrics() {
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new Histogram();
+            }
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> stageMap = new HashMap<>();
+            for (int i = 0; i < stages.length; i++) {
+                if (stages[i].count.get() > 0) {
+                    stageMap.put(STAGE_NAMES[i], stages[i].toMap());
+                }
+            }
+            long elapsedMs = Math.max(1, System.currentTimeMillis() - since);
+            Map<String, Object> map = new HashMap<>();
+            map.put("stages", stageMap);
+            map.put("labels", labels.get());
+            map.put("errors", errors.get());
+            map.put("bytesSent", bytesSent.get());
+            map.put("labelsPerMinute", labels.get() * 60000.0 / elapsedMs);
+            return map;
+        }
+    }
+
+    private final Map<String, PrinterMetrics> printers = new ConcurrentHashMap<>();
+    private final ThreadLocal<String> currentPrinter = new ThreadLocal<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private EventBroadcaster metricsEvents;
+    private long reportIntervalMs;
+    private final Runnable reportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            metricsEvents.send(snapshot());
+            handler.postDelayed(this, reportIntervalMs);
+        }
+    };
+
+    // Called by the pool around work on a printer's session
+    public void setCurrentPrinter(String printerKey) {
+        currentPrinter.set(printerKey);
+    }
+
+    // Records the time since startNanos (System.nanoTime()) for the printer marked on this thread
+    public void record(int stage, long startNanos) {
+        String printerKey = currentPrinter.get();
+        if (printerKey != null) {
+            record(printerKey, stage, startNanos);
+        }
+    }
+
+    public void record(String printerKey, int stage, long startNanos) {
+        metricsFor(printerKey).stages[stage].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    // Counts the copies of a label handed to print() on the printer marked on this thread, and
+    // their outcome
+    public void recordLabel(boolean success, long bytes, int copies) {
+        String printerKey = currentPrinter.get();
+        if (printerKey == null) {
+            return;
+        }
+        PrinterMetrics metrics = metricsFor(printerKey);
+        if (success) {
+            metrics.labels.addAndGet(copies);
+            metrics.bytesSent.addAndGet(bytes);
+        } else {
+            metrics.errors.incrementAndGet();
+        }
+    }
+
+    public void recordError(String printerKey) {
+        metricsFor(printerKey).errors.incrementAndGet();
+    }
+
+    // Metrics of every printer seen so far, keyed by PrinterTarget.key
+    public Map<String, Object> snapshot() {
+        Map<String, Object> map = new HashMap<>();
+        for (Map.Entry<String, PrinterMetrics> entry : printers.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return map;
+    }
+
+    public void reset() {
+        printers.clear();
+    }
+
+    // Sends a snapshot to the EventBroadcaster every intervalMs. Main thread only.
+    public void startReporting(EventBroadcaster events, long intervalMs) {
+        stopReporting();
+        metricsEvents = events;
+        reportIntervalMs = intervalMs;
+        handler.postDelayed(reportRunnable, intervalMs);
+    }
+
+    // Main thread only
+    public void stopReporting() {
+        handler.removeCallbacks(reportRunnable);
+    }
+
+    private PrinterMetrics metricsFor(String printerKey) {
+        PrinterMetrics metrics = printers.get(printerKey);
+        if (metrics == null) {
+            PrinterMetrics created = new PrinterMetrics();
+            metrics = printers.putIfAbsent(printerKey, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,207 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.citizen.sdk.labelprint.LabelConst;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Pool of warm printer sessions (PrinterTransport) keyed by PrinterTarget.key.
+// Sessions are reused across print calls, health-checked with printerCheck() after being idle
+// for a while, transparently reopened when stale and disconnected after IDLE_TIMEOUT_MS.
+// execute() must be called on the target's PrinterExecutors thread, which confines each session
+// to one thread; idle sessions are closed on that same thread.
+class PrinterConnectionPool {
+    private static final long IDLE_TIMEOUT_MS = 30000; // Disconnect sessions unused for 30 seconds
+    private static final long HEALTH_CHECK_AFTER_MS = 5000; // Verify sessions idle for more than 5 seconds
+    private static final long EVICTION_INTERVAL_MS = 10000;
+
+    // Work to run on a connected printer, returning a LabelConst result code
+    interface PrinterAction {
+        int run(PrinterTransport printer) throws Exception;
+    }
+
+    private static class PooledConnection {
+        public final PrinterTarget target;
+        public final PrinterTransport printer;
+        public volatile long lastUsed;
+
+        public PooledConnection(PrinterTarget target, PrinterTransport printer) {
+            this.target = target;
+            this.printer = printer;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private final PrinterTransport.Factory transportFactory;
+    private final PrinterExecutors executors;
+    private final PrintMetrics metrics;
+    private final Map<String, PooledConnection> connections = new ConcurrentHashMap<>();
+    private final Handler evictionHandler = new Handler(Looper.getMainLooper());
+    private boolean evictionScheduled = false;
+
+    private final Runnable evictionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (PrinterConnectionPool.this) {
+                evictionScheduled = false;
+            }
+            evictIdleConnections();
+            if (!connections.isEmpty()) {
+                scheduleEviction();
+            }
+        }
+    };
+
+    public PrinterConnectionPool(PrinterTransport.Factory transportFactory, PrinterExecutors executors, PrintMetrics metrics) {
+        this.transportFactory = transportFactory;
+        this.executors = executors;
+        this.metrics = metrics;
+    }
+
+    // Runs the action on a pooled session for the target, connecting first if needed.
+    // Returns the connect error if the printer cannot be reached, otherwise the action's result.
+    public int execute(PrinterTarget target, PrinterAction action) {
+        int[] err = new int[1];
+        PooledConnection connection = acquire(target, err);
+        if (connection == null) {
+            return err[0];
+        }
+
+        int r = runAction(connection, action);
+        if (isNotConnected(r)) {
+            // The session dropped before anything was sent: reconnect once and run the action again
+            System.out.println("Pooled session for " + target + " is stale (" + r + "), reconnecting");
+            close(connection);
+            connection = acquire(target, err);
+            if (connection == null) {
+                return err[0];
+            }
+            r = runAction(connection, action);
+        }
+        if (isConnectionError(r)) {
+            close(connection);
+        }
+        return r;
+    }
+
+    // Disconnects the pooled session for the target, if any
+    public void close(PrinterTarget target) {
+        PooledConnection connection = connections.get(target.key);
+        if (connection != null) {
+            close(connection);
+        }
+    }
+
+    // Disconnects every session on its own printer thread, behind any work still queued there
+    public void closeAll() {
+        synchronized (this) {
+            evictionHandler.removeCallbacks(evictionRunnable);
+            evictionScheduled = false;
+        }
+        for (PooledConnection connection : connections.values()) {
+            executors.forPrinter(connection.target.key).execute(() -> close(connection));
+        }
+    }
+
+    private PooledConnection acquire(PrinterTarget target, int[] err) {
+        PooledConnection connection = connections.get(target.key);
+        if (connection != null && !isHealthy(connection)) {
+            System.out.println("Pooled session for " + target + " failed health check, reconnecting");
+            close(connection);
+            connection = null;
+        }
+        if (connection != null) {
+            return connection;
+        }
+
+        long startTime = System.nanoTime();
+        PrinterTransport printer = transportFactory.create();
+        int r = printer.connect(target);
+        metrics.record(target.key, PrintMetrics.STAGE_CONNECT, startTime);
+        if (r != LabelConst.CLS_SUCCESS) {
+            System.err.println("Error connecting to printer " + target + ": " + r);
+            metrics.recordError(target.key);
+            err[0] = r;
+            return null;
+        }
+        connection = new PooledConnection(target, printer);
+        connections.put(target.key, connection);
+        scheduleEviction();
+        return connection;
+    }
+
+    private int runAction(PooledConnection connection, PrinterAction action) {
+        int r;
+        metrics.setCurrentPrinter(connection.target.key);
+        try {
+            r = action.run(connection.printer);
+        } catch (Exception e) {
+            System.err.println("Error during print operation on " + connection.target + ": " + e.getMessage());
+            r = -1;
+        } finally {
+            metrics.setCurrentPrinter(null);
+        }
+        connection.lastUsed = System.currentTimeMillis();
+        return r;
+    }
+
+    private boolean isHealthy(PooledConnection connection) {
+        // Recently used sessions are trusted, so back-to-back labels pay no extra round trip
+        if (System.currentTimeMillis() - connection.lastUsed < HEALTH_CHECK_AFTER_MS) {
+            return true;
+        }
+        int status = connection.printer.printerCheck();
+        connection.lastUsed = System.currentTimeMillis();
+        return !isConnectionError(status);
+    }
+
+    private void close(PooledConnection connection) {
+        connections.remove(connection.target.key, connection);
+        long startTime = System.nanoTime();
+        try {
+            connection.printer.disconnect();
+        } catch (Exception ignored) {
+        }
+        metrics.record(connection.target.key, PrintMetrics.STAGE_DISCONNECT, startTime);
+    }
+
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection connection : connections.values()) {
+            if (now - connection.lastUsed >= IDLE_TIMEOUT_MS) {
+                // Re-check on the printer thread: a job queued meanwhile may have used the session
+                executors.forPrinter(connection.target.key).execute(() -> {
+                    if (System.currentTimeMillis() - connection.lastUsed >= IDLE_TIMEOUT_MS) {
+                        System.out.println("Closing idle printer session: " + connection.target);
+                        close(connection);
+                    }
+                });
+            }
+        }
+    }
+
+    private synchronized void scheduleEviction() {
+        if (!evictionScheduled) {
+            evictionScheduled = true;
+            evictionHandler.postDelayed(evictionRunnable, EVICTION_INTERVAL_MS);
+        }
+    }
+
+    // Result codes meaning no session exists, so nothing reached the printer
+    static boolean isNotConnected(int code) {
+        return code == LabelConst.CLS_E_NOTCONNECT || code == LabelConst.CLS_E_DISCONNECT;
+    }
+
+    // Result codes meaning the session can no longer be trusted and must be reopened
+    static boolean isConnectionError(int code) {
+        return isNotConnected(code)
+                || code == LabelConst.CLS_E_CONNECT_NOTFOUND
+                || code == LabelConst.CLS_E_CONNECT_OFFLINE
+                || code == LabelConst.CLS_E_OFFLINE
+                || code == LabelConst.CLS_E_TIMEOUT
+                || code == LabelConst.CLS_E_FAILURE;
+    }
+}
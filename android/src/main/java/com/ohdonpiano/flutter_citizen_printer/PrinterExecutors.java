@@ -0,0 +1,188 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Execution engine that keeps printer I/O off the platform main thread.
+// Every physical printer (PrinterTarget.key) gets its own serial executor, so jobs for different
+// printers run in parallel while the jobs of one printer keep their submission order.
+// Results are delivered back on the main thread, where MethodChannel.Result must be used.
+// After shutdown() no thread is started again: work handed to forPrinter() is dropped and
+// submit() reports an error to its callback instead of running the task. drain() does the same
+// for every printer but one and waits for their queued work.
+class PrinterExecutors {
+    public static final String DISCOVERY_KEY = "discovery";
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    interface Callback<T> {
+        void onSuccess(T value);
+
+        void onError(Exception e);
+    }
+
+    // Task of submit(): its callback hears about it if the task is dropped after shutdown
+    private class CallbackTask<T> implements Runnable {
+        private final Callable<T> task;
+        private final Callback<T> callback;
+
+        public CallbackTask(Callable<T> task, Callback<T> callback) {
+            this.task = task;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            try {
+                T value = task.call();
+                mainHandler.post(() -> callback.onSuccess(value));
+            } catch (Exception e) {
+                mainHandler.post(() -> callback.onError(e));
+            }
+        }
+
+        public void drop() {
+            mainHandler.post(() -> callback.onError(new IllegalStateException("Printer executors were shut down")));
+        }
+    }
+
+    private final Map<String, ExecutorService> executors = new ConcurrentHashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Work handed to an executor after shutdown is dropped here instead of throwing at the caller
+    private final RejectedExecutionHandler dropAfterShutdown = (runnable, executor) -> {
+        System.err.println("Printer executors shut down, dropping work");
+        if (runnable instanceof CallbackTask) {
+            ((CallbackTask<?>) runnable).drop();
+        }
+    };
+    private final ExecutorService closed = newSerialExecutor("closed");
+    private volatile boolean shutdown;
+    private volatile String drainingExcept; // Set by drain(): the only key still taking work
+    private volatile boolean dropping; // drain() timed out and is dropping queued work
+
+    public PrinterExecutors() {
+        closed.shutdown();
+    }
+
+    // Returns the serial executor for a printer, creating it on first use.
+    // The worker thread exits after being idle, so unused printers cost nothing.
+    public ExecutorService forPrinter(String key) {
+        if (isClosed(key)) {
+            return closed;
+        }
+        ExecutorService executor = executors.get(key);
+        if (executor == null) {
+            ExecutorService created = newSerialExecutor(key);
+            executor = executors.putIfAbsent(key, created);
+            if (executor == null) {
+                executor = created;
+                // Created while shutting down: stop it too so it never runs anything
+                if (isClosed(key)) {
+                    created.shutdown();
+                }
+            } else {
+                created.shutdown();
+            }
+        }
+        return executor;
+    }
+
+    // Runs the task on the printer's executor and posts its outcome to the main thread
+    public <T> void submit(String key, Callable<T> task, Callback<T> callback) {
+        forPrinter(key).execute(new CallbackTask<>(task, callback));
+    }
+
+    public void runOnMainThread(Runnable runnable) {
+        mainHandler.post(runnable);
+    }
+
+    // Lets already queued work finish, then stops all printer threads. Work submitted afterwards
+    // is dropped.
+    public void shutdown() {
+        shutdown = true;
+        for (ExecutorService executor : executors.values()) {
+            executor.shutdown();
+        }
+    }
+
+    // Lets the queued work of every executor but keptKey's finish and waits for it, up to
+    // timeoutMs; work still queued then is dropped. The keptKey executor keeps taking work, so
+    // what the draining work hands it (e.g. journal records) still runs until shutdown().
+    // Blocks the calling thread.
+    public void drain(String keptKey, long timeoutMs) {
+        drainingExcept = keptKey;
+        List<ExecutorService> draining = new ArrayList<>();
+        for (Map.Entry<String, ExecutorService> entry : executors.entrySet()) {
+            if (!entry.getKey().equals(keptKey)) {
+                entry.getValue().shutdown();
+                draining.add(entry.getValue());
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            for (ExecutorService executor : draining) {
+                if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    dropping = true;
+                    List<Runnable> dropped = executor.shutdownNow();
+                    System.err.println("Printer executors not drained in " + timeoutMs + " ms, dropping " + dropped.size() + " tasks");
+                    for (Runnable runnable : dropped) {
+                        if (runnable instanceof CallbackTask) {
+                            ((CallbackTask<?>) runnable).drop();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Waits up to timeoutMs for every thread to stop after shutdown(); returns false on timeout
+    public boolean awaitTermination(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            for (ExecutorService executor : executors.values()) {
+                if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    // True once drain() timed out: work still queued is dropped, so a task waiting for the output
+    // of another one should give up
+    public boolean isDropping() {
+        return dropping;
+    }
+
+    private boolean isClosed(String key) {
+        String kept = drainingExcept;
+        return shutdown || (kept != null && !kept.equals(key));
+    }
+
+    private ExecutorService newSerialExecutor(String key) {
+        return new ThreadPoolExecutor(
+                0, 1, IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "citizen-printer-" + key);
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                dropAfterShutdown);
+    }
+}
@@ -0,0 +1,106 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Named groups of interchangeable printers fed from a single job stream.
+// Each job goes to the least loaded healthy member (fewest jobs queued, breaker closed, no
+// recent status needing an operator). If it fails on a member for any reason other than an error
+// in the job itself (connection lost, cover open, paper empty, breaker open), it is moved to a
+// member it has not tried yet under the same job ID, so jobs queued on a printer that goes down
+// or needs an operator drain to the others.
+class PrinterGroups {
+    private static final long STATUS_MAX_AGE_MS = 10000; // Ignore status snapshots older than this
+
+    private final Map<String, List<PrinterTarget>> groups = new ConcurrentHashMap<>();
+    private final PrintJobQueue printJobQueue;
+    private final RetryPolicy retryPolicy;
+    private final StatusMonitor statusMonitor;
+
+    public PrinterGroups(PrintJobQueue printJobQueue, RetryPolicy retryPolicy, StatusMonitor statusMonitor) {
+        this.printJobQueue = printJobQueue;
+        this.retryPolicy = retryPolicy;
+        this.statusMonitor = statusMonitor;
+    }
+
+    public void register(String groupId, List<PrinterTarget> members) {
+        groups.put(groupId, Collections.unmodifiableList(new ArrayList<>(members)));
+    }
+
+    public void remove(String groupId) {
+        groups.remove(groupId);
+    }
+
+    public boolean contains(String groupId) {
+        return groups.containsKey(groupId);
+    }
+
+    // Dispatches quantity copies of the label to the group and returns the job ID, or null if no
+    // member can take it. A moved job keeps its own quantity, even if it had been merged.
+    public String submit(String groupId, PrintJobQueue.LabelJob job, int quantity, Object coalesceKey) {
+        List<PrinterTarget> members = groups.get(groupId);
+        if (members == null) {
+            return null;
+        }
+        String jobId = UUID.randomUUID().toString();
+        return dispatch(members, job, quantity, coalesceKey, jobId, new HashSet<>()) ? jobId : null;
+    }
+
+    // Enqueues the job on the best member not tried yet; runs on the main thread for new jobs
+    // and on the failed member's thread when a job is moved
+    private boolean dispatch(List<PrinterTarget> members, PrintJobQueue.LabelJob job, int quantity, Object coalesceKey,
+                             String jobId, Set<String> tried) {
+        while (true) {
+            PrinterTarget target = pick(members, tried);
+            if (target == null) {
+                return false;
+            }
+            tried.add(target.key);
+            boolean queued = printJobQueue.submit(target, job, quantity, coalesceKey, jobId, error -> {
+                if (RetryPolicy.isJobError(error)) {
+                    // The job itself is at fault: another printer would fail it too
+                    return false;
+                }
+                System.out.println("Moving job " + jobId + " off " + target + " after error " + error);
+                return dispatch(members, job, quantity, coalesceKey, jobId, tried);
+            });
+            if (queued) {
+                return true;
+            }
+        }
+    }
+
+    // Least loaded healthy member not tried yet, or null if none is left
+    private PrinterTarget pick(List<PrinterTarget> members, Set<String> tried) {
+        PrinterTarget best = null;
+        int bestDepth = Integer.MAX_VALUE;
+        for (PrinterTarget member : members) {
+            if (tried.contains(member.key) || !isHealthy(member.key)) {
+                continue;
+            }
+            int depth = printJobQueue.queueDepth(member.key);
+            if (depth < bestDepth) {
+                best = member;
+                bestDepth = depth;
+            }
+        }
+        return best;
+    }
+
+    private boolean isHealthy(String printerKey) {
+        if (!retryPolicy.isAvailable(printerKey)) {
+            return false;
+        }
+        StatusMonitor.Snapshot snapshot = statusMonitor.cached(printerKey);
+        if (snapshot == null || System.currentTimeMillis() - snapshot.updated > STATUS_MAX_AGE_MS) {
+            return true;
+        }
+        return snapshot.connected && !snapshot.needsOperator();
+    }
+}
@@ -0,0 +1,334 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import io.flutter.plugin.common.MethodChannel;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Printer state shared by every FlutterEngine of the process: printer threads, warm connections,
+// the job queue and its journal, the USB device registry, caches, profiles and templates, and the
+// USB permission flows. Each plugin instance acquires it on attach and releases it on detach;
+// it is created by the first engine and shut down when the last one detaches, so a second engine
+// (a background isolate, an add-to-app screen) reuses the open sessions instead of competing
+// with its own for the same printers.
+// Events are fanned out to every engine through the broadcasters; method channels, image
+// channels and banded prints stay with each plugin instance.
+class PrinterService {
+    static final String ACTION_USB_PERMISSION = "com.citizen.USB_PERMISSION";
+    static final String ACTION_USB_SERIAL_PERMISSION = "com.citizen.USB_SERIAL_PERMISSION";
+    static final String ACTION_USB_PERMISSION_BULK = "com.citizen.USB_PERMISSION_BULK";
+    private static final long USB_STABILIZATION_DELAY_MS = 300; // Wait after a grant before printing
+    // Time the jobs still queued when the last engine detaches get to print; later ones are
+    // resumed from the journal on the next attach
+    private static final long DRAIN_TIMEOUT_MS = 10000;
+
+    // Guarded by PrinterService.class
+    private static PrinterService instance;
+    private static int references;
+    private static Thread draining; // Drains the queues of the last service released, null if none
+
+    // A print waiting for the answer to its device's USB permission prompt
+    static class PendingPrintRequest {
+        public final Runnable print; // Run on the main thread once permission is granted
+        public final MethodChannel.Result result;
+
+        public PendingPrintRequest(Runnable print, MethodChannel.Result result) {
+            this.print = print;
+            this.result = result;
+        }
+    }
+
+    // requestUsbPermissions() in progress: the devices still to prompt, one after the other, and
+    // how many were granted so far
+    static class BulkPermissionRequest {
+        public final MethodChannel.Result result;
+        public final Queue<UsbDevice> remaining;
+        public final AtomicInteger granted = new AtomicInteger();
+
+        public BulkPermissionRequest(MethodChannel.Result result, Collection<UsbDevice> devices) {
+            this.result = result;
+            this.remaining = new ConcurrentLinkedQueue<>(devices);
+        }
+    }
+
+    public final Context context;
+    public final UsbManager usbManager;
+    public final PrinterExecutors printerExecutors = new PrinterExecutors();
+    public final PrintMetrics metrics = new PrintMetrics();
+    public final PrinterTransport.Factory transportFactory;
+    public final PrinterConnectionPool connectionPool;
+    public final UsbDeviceRegistry usbDeviceRegistry;
+    public final SpoolManager spoolManager;
+    public final NvBitmapManager nvBitmapManager;
+    public final UsbSerialCache usbSerialCache;
+    public final EventBroadcaster jobEvents = new EventBroadcaster();
+    public final EventBroadcaster discoveryEvents = new EventBroadcaster();
+    public final EventBroadcaster statusEvents = new EventBroadcaster();
+    public final EventBroadcaster metricsEvents = new EventBroadcaster();
+    public final DiscoveryRegistry discoveryRegistry;
+    public final StatusMonitor statusMonitor;
+    public final RetryPolicy retryPolicy;
+    public final JobJournal jobJournal;
+    public final PrintJobQueue printJobQueue;
+    public final PrinterGroups printerGroups;
+    public final SettingsProfiles settingsProfiles = new SettingsProfiles();
+    public final Map<String, LabelTemplate> labelTemplates = new ConcurrentHashMap<>();
+
+    // USB search with serial numbers in progress, null if none; replaced atomically
+    public final AtomicReference<SerialNumberSearch> serialSearch = new AtomicReference<>();
+    // Request for the permissions of all USB printers in progress, null if none
+    public final AtomicReference<BulkPermissionRequest> bulkPermissionRequest = new AtomicReference<>();
+    // Prints waiting for the answer to a USB permission prompt
+    private final PendingPrintRequests pendingPrintRequests = new PendingPrintRequests();
+    private final AtomicBoolean journalReplayClaimed = new AtomicBoolean();
+    private BroadcastReceiver usbReceiver;
+
+    // Returns the process-wide service, creating it for the first engine
+    public static synchronized PrinterService acquire(Context context) {
+        if (instance == null) {
+            instance = new PrinterService(context.getApplicationContext(), draining);
+            draining = null;
+            System.out.println("Printer service started");
+        }
+        references++;
+        return instance;
+    }
+
+    // Releases an engine's reference; the last one shuts the service down
+    public static synchronized void release(PrinterService service) {
+        if (service != instance || --references > 0) {
+            return;
+        }
+        instance = null;
+        draining = service.shutdown();
+    }
+
+    // previousDrain is the thread still draining the queues of the previous service, or null
+    private PrinterService(Context context, Thread previousDrain) {
+        this.context = context;
+        usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        transportFactory = LabelPrinterTransport.factory(context);
+        connectionPool = new PrinterConnectionPool(transportFactory, printerExecutors, metrics);
+        usbDeviceRegistry = new UsbDeviceRegistry(context, usbManager, device -> {
+            // Drop the warm session of an unplugged printer on its own thread
+            PrinterTarget target = PrinterTarget.usb(device);
+            printerExecutors.forPrinter(target.key).execute(() -> connectionPool.close(target));
+        });
+        usbDeviceRegistry.start();
+        spoolManager = new SpoolManager(context);
+        nvBitmapManager = new NvBitmapManager(spoolManager);
+        usbSerialCache = new UsbSerialCache(context);
+        discoveryRegistry = new DiscoveryRegistry(transportFactory, printerExecutors, discoveryEvents, metrics);
+        statusMonitor = new StatusMonitor(printerExecutors, connectionPool, statusEvents);
+        retryPolicy = new RetryPolicy(connectionPool, statusMonitor, metrics);
+        jobJournal = new JobJournal(context, printerExecutors);
+        if (previousDrain != null) {
+            // The previous service still writes the outcomes of its last jobs to the journal file:
+            // the journal work of this one (opening, replaying, journaling new jobs) waits for it
+            // on the journal thread, so the main thread never blocks and no job it is still
+            // printing is replayed
+            printerExecutors.forPrinter(JobJournal.JOURNAL_KEY).execute(() -> {
+                System.out.println("Waiting for the previous printer service to drain");
+                try {
+                    previousDrain.join(2 * DRAIN_TIMEOUT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        printJobQueue = new PrintJobQueue(printerExecutors, retryPolicy, jobEvents, metrics, jobJournal);
+        printerGroups = new PrinterGroups(printJobQueue, retryPolicy, statusMonitor);
+        registerUsbReceiver();
+    }
+
+    // True for the first caller only: that engine opens the journal and resumes its jobs
+    public boolean claimJournalReplay() {
+        return journalReplayClaimed.compareAndSet(false, true);
+    }
+
+    // Adds a print to the device's waiting list and opens a permission prompt if none is open
+    public void requestPermission(UsbDevice device, PendingPrintRequest request) {
+        if (!pendingPrintRequests.add(String.valueOf(device.getDeviceId()), request)) {
+            return;
+        }
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
+            // USB permission broadcasts need mutable intents so the system can attach EXTRA_DEVICE.
+            flags |= PendingIntent.FLAG_MUTABLE;
+        }
+        PendingIntent permissionIntent = PendingIntent.getBroadcast(
+                context, 0, new Intent(ACTION_USB_PERMISSION), flags
+        );
+        usbManager.requestPermission(device, permissionIntent);
+    }
+
+    public void readSerialNumber(UsbDevice device, UsbPrinterInfo printerInfo) {
+        String serialNumber = usbSerialCache.read(device);
+        printerInfo.serialNumber = serialNumber != null ? serialNumber : "";
+        System.out.println("Serial number for device " + printerInfo.deviceId + ": " + printerInfo.serialNumber);
+    }
+
+    public void requestNextPermission(BulkPermissionRequest request) {
+        UsbDevice device = request.remaining.poll();
+        if (device == null) {
+            // All permissions processed; only the caller that ends the request replies
+            if (bulkPermissionRequest.compareAndSet(request, null)) {
+                request.result.success(request.granted.get());
+            }
+            return;
+        }
+
+        int flags = android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S
+                ? PendingIntent.FLAG_MUTABLE
+                : 0;
+
+        PendingIntent permissionIntent = PendingIntent.getBroadcast(
+                context, device.getDeviceId(), new Intent(ACTION_USB_PERMISSION_BULK), flags
+        );
+
+        System.out.println("Requesting bulk permission for device: " + device.getDeviceId());
+        usbManager.requestPermission(device, permissionIntent);
+    }
+
+    // One receiver for the whole process, so each permission answer is handled exactly once
+    // whichever engine opened the prompt
+    private void registerUsbReceiver() {
+        usbReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                String action = intent.getAction();
+                // Each flow keeps its state in its own concurrent map or atomically replaced
+                // object, so no lock is shared between them
+                if (ACTION_USB_PERMISSION.equals(action)) {
+                    UsbDevice device = (UsbDevice) intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+
+                    if (device != null) {
+                        String deviceKey = String.valueOf(device.getDeviceId());
+                        boolean granted = intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false);
+                        usbDeviceRegistry.onPermissionResult(device, granted);
+
+                        for (PendingPrintRequest pendingRequest : pendingPrintRequests.take(deviceKey)) {
+                            if (granted) {
+                                // Permission granted - wait a moment for USB to stabilize before printing
+                                new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(pendingRequest.print, USB_STABILIZATION_DELAY_MS);
+                            } else {
+                                // Permission denied
+                                pendingRequest.result.error("PERMISSION_DENIED", "USB permission denied", null);
+                            }
+                        }
+                    }
+                } else if (ACTION_USB_SERIAL_PERMISSION.equals(action)) {
+                    UsbDevice device = (UsbDevice) intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+                    SerialNumberSearch search = serialSearch.get();
+
+                    if (device != null && search != null) {
+                        UsbPrinterInfo printerInfo = search.onPermissionAnswered(String.valueOf(device.getDeviceId()));
+                        boolean granted = intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false);
+                        usbDeviceRegistry.onPermissionResult(device, granted);
+                        if (printerInfo != null) {
+                            if (granted) {
+                                // Permission granted, read the serial number
+                                System.out.println("Permission GRANTED for device: " + device.getDeviceId());
+                                readSerialNumber(device, printerInfo);
+                            } else {
+                                System.out.println("Permission DENIED for device: " + device.getDeviceId());
+                            }
+                            // Complete as soon as every prompt has been answered
+                            if (search.isAnswered()) {
+                                search.complete();
+                            }
+                        }
+                    }
+                } else if (ACTION_USB_PERMISSION_BULK.equals(action)) {
+                    UsbDevice device = (UsbDevice) intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+                    BulkPermissionRequest request = bulkPermissionRequest.get();
+
+                    if (device != null && request != null) {
+                        boolean granted = intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false);
+                        usbDeviceRegistry.onPermissionResult(device, granted);
+                        if (granted) {
+                            request.granted.incrementAndGet();
+                            System.out.println("Bulk permission GRANTED for device: " + device.getDeviceId());
+                        } else {
+                            System.out.println("Bulk permission DENIED for device: " + device.getDeviceId());
+                        }
+                        // Request permission for the next device
+                        requestNextPermission(request);
+                    }
+                }
+            }
+        };
+        IntentFilter filter = new IntentFilter(ACTION_USB_PERMISSION);
+        filter.addAction(ACTION_USB_SERIAL_PERMISSION);
+        filter.addAction(ACTION_USB_PERMISSION_BULK);
+        // For Android 13+ we need to specify the RECEIVER_NOT_EXPORTED flag
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.TIRAMISU) {
+            context.registerReceiver(usbReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            context.registerReceiver(usbReceiver, filter);
+        }
+    }
+
+    // Stops the service; returns the thread draining its queues
+    private Thread shutdown() {
+        metrics.stopReporting();
+        discoveryRegistry.stop();
+        statusMonitor.stopAll();
+        usbDeviceRegistry.stop();
+
+        // Unregister receiver only if it was registered
+        if (usbReceiver != null) {
+            try {
+                context.unregisterReceiver(usbReceiver);
+            } catch (IllegalArgumentException e) {
+                // Receiver might already be unregistered
+            }
+            usbReceiver = null;
+        }
+
+        // Clean up pending requests and notify errors
+        for (String deviceId : new ArrayList<>(pendingPrintRequests.deviceIds())) {
+            for (PendingPrintRequest request : pendingPrintRequests.take(deviceId)) {
+                request.result.error("PLUGIN_DETACHED", "Plugin was detached before print could complete", null);
+            }
+        }
+        SerialNumberSearch search = serialSearch.get();
+        if (search != null) {
+            search.fail("PLUGIN_DETACHED", "Plugin was detached before the USB search could complete");
+        }
+        BulkPermissionRequest permissionRequest = bulkPermissionRequest.getAndSet(null);
+        if (permissionRequest != null) {
+            permissionRequest.result.error("PLUGIN_DETACHED", "Plugin was detached before permissions were granted", null);
+        }
+
+        // Disconnect all warm printer sessions behind the jobs still queued
+        connectionPool.closeAll();
+        // The queued jobs drain off the main thread; their outcomes are journaled before the
+        // journal closes, and the jobs that do not finish in time are resumed on the next attach
+        Thread drain = new Thread(() -> {
+            printerExecutors.drain(JobJournal.JOURNAL_KEY, DRAIN_TIMEOUT_MS);
+            jobJournal.close();
+            printerExecutors.shutdown();
+            printerExecutors.awaitTermination(DRAIN_TIMEOUT_MS);
+            System.out.println("Printer service stopped");
+        }, "citizen-printer-drain");
+        drain.setDaemon(true);
+        drain.start();
+        return drain;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.hardware.usb.UsbDevice;
+
+import com.citizen.sdk.labelprint.LabelConst;
+
+import java.util.Map;
+
+// Class to identify a physical printer by port type plus IP address or USB device.
+// The key is stable for the same printer and is used to pool connections and serialize jobs.
+class PrinterTarget {
+    public static final String DEFAULT_USB_KEY = "usb:default";
+
+    public final int portType;
+    public final String ipAddress;
+    public final UsbDevice usbDevice;
+    public final String key;
+
+    private PrinterTarget(int portType, String ipAddress, UsbDevice usbDevice, String key) {
+        this.portType = portType;
+        this.ipAddress = ipAddress;
+        this.usbDevice = usbDevice;
+        this.key = key;
+    }
+
+    public static PrinterTarget wifi(String ipAddress) {
+        return new PrinterTarget(LabelConst.CLS_PORT_WiFi, ipAddress, null, "wifi:" + ipAddress);
+    }
+
+    public static PrinterTarget usb(UsbDevice device) {
+        return new PrinterTarget(LabelConst.CLS_PORT_USB, null, device, "usb:" + device.getDeviceId());
+    }
+
+    // The default USB printer, as used by printImageUSB and getUsbStatus. It is resolved to its
+    // device so it shares the key, session and thread of usb(device); DEFAULT_USB_KEY and the SDK's
+    // own choice of printer are only used while no Citizen printer is attached.
+    public static PrinterTarget defaultUsb(UsbDeviceRegistry usbDevices) {
+        UsbDevice device = usbDevices.defaultPrinter();
+        if (device != null) {
+            return usb(device);
+        }
+        return new PrinterTarget(LabelConst.CLS_PORT_USB, null, null, DEFAULT_USB_KEY);
+    }
+
+    // Key of a Dart target map ({type: wifi, ip} or {type: usb, deviceId?}) without checking that the
+    // device is attached, or null if the map is invalid
+    public static String keyOf(Map<String, Object> arguments, UsbDeviceRegistry usbDevices) {
+        if (arguments == null) {
+            return null;
+        }
+        Object type = arguments.get("type");
+        if ("wifi".equals(type) && arguments.get("ip") != null) {
+            return "wifi:" + arguments.get("ip");
+        }
+        if ("usb".equals(type)) {
+            Object deviceId = arguments.get("deviceId");
+            return deviceId != null ? "usb:" + deviceId : defaultUsb(usbDevices).key;
+        }
+        return null;
+    }
+
+    public String toString() {
+        return key;
+    }
+}
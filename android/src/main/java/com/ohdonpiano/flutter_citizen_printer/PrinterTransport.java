@@ -0,0 +1,88 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.CitizenPrinterInfo;
+import com.citizen.sdk.labelprint.LabelDesign;
+
+// The printer operations the job pipeline needs from one session, returning LabelConst result codes.
+// LabelPrinterTransport implements it over the Citizen SDK; the pool, retry policy, queue,
+// templates, banded prints and discovery only see this interface, so they can be driven by
+// another transport (e.g. an in-memory fake) without a device.
+interface PrinterTransport {
+
+    // Creates one unconnected transport per pooled session
+    interface Factory {
+        PrinterTransport create();
+    }
+
+    // WiFi searches; they need no connection and block for the whole timeout, with the result
+    // code in result[0]
+    CitizenPrinterInfo[] searchCitizenPrinter(int portType, int timeout, int[] result);
+
+    String[] searchLabelPrinter(int portType, int timeout, int[] result);
+
+    int connect(PrinterTarget target);
+
+    int disconnect();
+
+    // Refreshes the printer status; the status getters below report what it read
+    int printerCheck();
+
+    // LabelConst.CLS_STS_YES or CLS_STS_NO as of the last printerCheck()
+    int getPaperError();
+
+    int getRibbonEnd();
+
+    int getPause();
+
+    int getPrinting();
+
+    int getWaitingForPeeling();
+
+    int print(LabelDesign design, int copies);
+
+    int storeNVBitmap(String path, String name, int rotation, int width, int height);
+
+    // LabelConst.CLS_UNIT_MILLI (lengths in 0.1 mm) or CLS_UNIT_INCH (0.01 inch)
+    int getMeasurementUnit();
+
+    // Page settings applied to the following print() calls on this session
+    int setContinuousMediaLength(int length);
+
+    int getContinuousMediaLength();
+
+    int setMediaHandling(int mediaHandling);
+
+    int getMediaHandling();
+
+    int setLabelSensor(int sensor);
+
+    int getLabelSensor();
+
+    int setPrintSpeed(int speed);
+
+    int getPrintSpeed();
+
+    int setFeedSpeed(int speed);
+
+    int getFeedSpeed();
+
+    int setPrintDarkness(int darkness);
+
+    int getPrintDarkness();
+
+    int setVerticalOffset(int offset);
+
+    int getVerticalOffset();
+
+    int setHorizontalOffset(int offset);
+
+    int getHorizontalOffset();
+
+    int setStartOffset(int offset);
+
+    int getStartOffset();
+
+    int setStopOffset(int offset);
+
+    int getStopOffset();
+}
@@ -0,0 +1,145 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.LabelConst;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Retries print work on pooled sessions according to what went wrong.
+// Errors in the job itself (illegal parameters, bad format, label too big) are returned at once
+// and say nothing about the printer. Conditions only an operator can fix are returned at once
+// too and open the printer's breaker: print() reporting cover open or paper empty, or, after any
+// other failure, a status check showing paper or ribbon empty. Everything else is transient and
+// retried with exponential backoff and jitter.
+// Each printer has a circuit breaker: it opens after an operator condition or after
+// FAILURE_THRESHOLD jobs in a row exhausted their retries. While open, jobs fail fast with the
+// error that opened it; after OPEN_DURATION_MS one trial job is let through to close it again.
+// execute() must be called on the target's PrinterExecutors thread.
+class RetryPolicy {
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_DELAY_MS = 250;
+    private static final long MAX_DELAY_MS = 4000;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long OPEN_DURATION_MS = 15000;
+
+    // Breaker state of one printer; written on the printer thread, readable from any thread
+    private static class Breaker {
+        public volatile int consecutiveFailures;
+        public volatile long openUntil;
+        public volatile int lastError;
+    }
+
+    private final PrinterConnectionPool connectionPool;
+    private final StatusMonitor statusMonitor;
+    private final PrintMetrics metrics;
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+
+    public RetryPolicy(PrinterConnectionPool connectionPool, StatusMonitor statusMonitor, PrintMetrics metrics) {
+        this.connectionPool = connectionPool;
+        this.statusMonitor = statusMonitor;
+        this.metrics = metrics;
+    }
+
+    // Runs the action on a pooled session, retrying transient failures.
+    // Returns the result of the last attempt, or the breaker's error without trying if it is open.
+    public int execute(PrinterTarget target, PrinterConnectionPool.PrinterAction action) {
+        long startTime = System.nanoTime();
+        int r = executeWithRetries(target, action);
+        metrics.record(target.key, PrintMetrics.STAGE_JOB, startTime);
+        return r;
+    }
+
+    private int executeWithRetries(PrinterTarget target, PrinterConnectionPool.PrinterAction action) {
+        Breaker breaker = breakerFor(target.key);
+        if (System.currentTimeMillis() < breaker.openUntil) {
+            System.out.println("Circuit open for " + target + ", failing job fast (" + breaker.lastError + ")");
+            return breaker.lastError;
+        }
+
+        int r = LabelConst.CLS_SUCCESS;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                long delay = backoffDelay(attempt);
+                System.out.println("Retrying job on " + target + " in " + delay + " ms (attempt " + (attempt + 1) + "/" + MAX_ATTEMPTS + ", error " + r + ")");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return r;
+                }
+            }
+
+            r = connectionPool.execute(target, action);
+            if (r == LabelConst.CLS_SUCCESS) {
+                breaker.consecutiveFailures = 0;
+                breaker.openUntil = 0;
+                return r;
+            }
+            if (isJobError(r)) {
+                // The job itself is at fault: retrying cannot help and says nothing about the printer
+                return r;
+            }
+            // A printer that cannot be reached cannot report its status either: checking it would
+            // only cost another connect timeout
+            if (StatusMonitor.isOperatorError(r)
+                    || (!PrinterConnectionPool.isConnectionError(r) && needsOperator(target))) {
+                trip(target, breaker, r);
+                return r;
+            }
+        }
+
+        breaker.consecutiveFailures++;
+        if (breaker.consecutiveFailures >= FAILURE_THRESHOLD) {
+            trip(target, breaker, r);
+        } else if (breaker.openUntil != 0) {
+            // The trial job after the open period failed: open again
+            trip(target, breaker, r);
+        }
+        return r;
+    }
+
+    // Whether jobs sent to the printer now would be attempted, i.e. its breaker is not open
+    public boolean isAvailable(String printerKey) {
+        Breaker breaker = breakers.get(printerKey);
+        return breaker == null || System.currentTimeMillis() >= breaker.openUntil;
+    }
+
+    // Codes that blame the job itself: any printer would fail it the same way
+    static boolean isJobError(int code) {
+        return code == LabelConst.CLS_E_ILLEGAL
+                || code == LabelConst.CLS_EPTR_BADFORMAT
+                || code == LabelConst.CLS_EPTR_TOOBIG;
+    }
+
+    // Checks the printer after a failure; true if it reports a condition only an operator can fix
+    private boolean needsOperator(PrinterTarget target) {
+        return statusMonitor.check(target).needsOperator();
+    }
+
+    private void trip(PrinterTarget target, Breaker breaker, int error) {
+        breaker.lastError = error;
+        breaker.openUntil = System.currentTimeMillis() + OPEN_DURATION_MS;
+        breaker.consecutiveFailures = 0;
+        System.err.println("Circuit opened for " + target + " for " + OPEN_DURATION_MS + " ms after error " + error);
+    }
+
+    // Exponential backoff with jitter: a random delay between half and all of base * 2^(attempt - 1)
+    private long backoffDelay(int attempt) {
+        long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (attempt - 1));
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    private Breaker breakerFor(String printerKey) {
+        Breaker breaker = breakers.get(printerKey);
+        if (breaker == null) {
+            Breaker created = new Breaker();
+            breaker = breakers.putIfAbsent(printerKey, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+}
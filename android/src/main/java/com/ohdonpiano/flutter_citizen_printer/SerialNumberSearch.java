@@ -0,0 +1,96 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import io.flutter.plugin.common.MethodChannel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One USB search with serial numbers in progress: the printers found, the devices whose serial
+// number permission prompt is still open, and the Dart result.
+// The printer list is fixed when the search starts; prompts are answered concurrently and the
+// search replies exactly once, on the last answer, the timeout or a cancellation, whichever comes
+// first. Nothing is shared with other searches, so the plugin only swaps its current search
+// atomically.
+class SerialNumberSearch {
+
+    // Called once the search has replied
+    interface Listener {
+        void onCompleted(SerialNumberSearch search);
+    }
+
+    private final MethodChannel.Result result;
+    private final List<UsbPrinterInfo> printers;
+    private final Map<String, UsbPrinterInfo> awaitingPermission; // By deviceId
+    private final Listener listener;
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private final Handler timeoutHandler = new Handler(Looper.getMainLooper());
+    private final Runnable timeout = () -> {
+        System.out.println("Global search timeout reached. Completing search with current results.");
+        complete();
+    };
+
+    public SerialNumberSearch(MethodChannel.Result result, List<UsbPrinterInfo> printers,
+                              Map<String, UsbPrinterInfo> awaitingPermission, Listener listener) {
+        this.result = result;
+        this.printers = Collections.unmodifiableList(new ArrayList<>(printers));
+        this.awaitingPermission = new ConcurrentHashMap<>(awaitingPermission);
+        this.listener = listener;
+    }
+
+    // True once every permission prompt has been answered
+    public boolean isAnswered() {
+        return awaitingPermission.isEmpty();
+    }
+
+    // Completes the search with the current results after timeoutMs at the latest
+    public void startTimeout(long timeoutMs) {
+        timeoutHandler.postDelayed(timeout, timeoutMs);
+    }
+
+    // Returns the printer waiting for this device's answer, or null if it was not waiting
+    public UsbPrinterInfo onPermissionAnswered(String deviceId) {
+        return awaitingPermission.remove(deviceId);
+    }
+
+    // Replies with the printers found; returns false if the search had already replied
+    public boolean complete() {
+        if (!finish()) {
+            return false;
+        }
+        ArrayList<Map<String, Object>> resultList = new ArrayList<>();
+        for (UsbPrinterInfo printerInfo : printers) {
+            resultList.add(printerInfo.toMap());
+        }
+        System.out.println("USB search completed. Found " + resultList.size() + " devices:");
+        for (Map<String, Object> printer : resultList) {
+            System.out.println("- " + printer);
+        }
+        result.success(resultList);
+        return true;
+    }
+
+    // Replies with an error; returns false if the search had already replied
+    public boolean fail(String code, String message) {
+        if (!finish()) {
+            return false;
+        }
+        result.error(code, message, null);
+        return true;
+    }
+
+    private boolean finish() {
+        if (!completed.compareAndSet(false, true)) {
+            return false;
+        }
+        timeoutHandler.removeCallbacks(timeout);
+        listener.onCompleted(this);
+        return true;
+    }
+}
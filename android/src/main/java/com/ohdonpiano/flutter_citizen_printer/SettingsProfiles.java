@@ -0,0 +1,216 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.LabelConst;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Named printer settings profiles (speed, darkness, media handling, sensor, offsets) that jobs
+// can reference, e.g. a fast draft profile for high-volume runs and a darker, slower one for
+// archival labels.
+// The values last applied to each pooled session are remembered, so applying a profile only calls
+// the setters whose value differs: printing many labels with one profile, or switching between
+// profiles that share values, adds no setter calls. The cache is keyed by the session's
+// transport, which the pool replaces when it reconnects or evicts; a new session reads each
+// setting from its getter the first time a profile mentions it, so it is only set if it differs.
+class SettingsProfiles {
+
+    // A printer setting a profile can hold, with the transport getter and setter for it
+    enum Setting {
+        PRINT_SPEED("printSpeed") {
+            @Override
+            int read(PrinterTransport printer) {
+                return printer.getPrintSpeed();
+            }
+
+            @Override
+            int apply(PrinterTransport printer, int value) {
+                return printer.setPrintSpeed(value);
+            }
+        },
+        FEED_SPEED("feedSpeed") {
+            @Override
+            int read(PrinterTransport printer) {
+                return printer.getFeedSpeed();
+            }
+
+            @Override
+            int apply(PrinterTransport printer, int value) {
+                return printer.setFeedSpeed(value);
+            }
+        },
+        PRINT_DARKNESS("printDarkness") {
+            @Override
+            int read(PrinterTransport printer) {
+                return printer.getPrintDarkness();
+            }
+
+            @Override
+            int apply(PrinterTransport printer, int value) {
+                return printer.setPrintDarkness(value);
+            }
+        },
+        MEDIA_HANDLING("mediaHandling") {
+            @Override
+            int read(PrinterTransport printer) {
+                return printer.getMediaHandling();
+            }
+
+            @Override
+            int apply(PrinterTransport printer, int value) {
+                return printer.setMediaHandling(value);
+            }
+        },
+        LABEL_SENSOR("labelSensor") {
+            @Override
+            int read(PrinterTransport printer) {
+                return printer.getLabelSensor();
+            }
+
+            @Override
+            int apply(PrinterTransport printer, int value) {
+                return printer.setLabelSensor(value);
+            }
+        },
+        VERTICAL_OFFSET("verticalOffset") {
+            @Override
+            int read(PrinterTransport printer) {
+                return printer.getVerticalOffset();
+            }
+
+            @Override
+            int apply(PrinterTransport printer, int value) {
+                return printer.setVerticalOffset(value);
+            }
+        },
+        HORIZONTAL_OFFSET("horizontalOffset") {
+            @Override
+            int read(PrinterTransport printer) {
+                return printer.getHorizontalOffset();
+            }
+
+            @Override
+            int apply(PrinterTransport printer, int value) {
+                return printer.setHorizontalOffset(value);
+            }
+        },
+        START_OFFSET("startOffset") {
+            @Override
+            int read(PrinterTransport printer) {
+                return printer.getStartOffset();
+            }
+
+            @Override
+            int apply(PrinterTransport printer, int value) {
+                return printer.setStartOffset(value);
+            }
+        },
+        STOP_OFFSET("stopOffset") {
+            @Override
+            int read(PrinterTransport printer) {
+                return printer.getStopOffset();
+            }
+
+            @Override
+            int apply(PrinterTransport printer, int value) {
+                return printer.setStopOffset(value);
+            }
+        };
+
+        public final String name;
+
+        Setting(String name) {
+            this.name = name;
+        }
+
+        abstract int read(PrinterTransport printer);
+
+        abstract int apply(PrinterTransport printer, int value);
+    }
+
+    // The settings of a profile; settings it does not mention are left as they are
+    static class Profile {
+        // Used by jobs that name no profile
+        public static final Profile NONE = new Profile("", Collections.<Setting, Integer>emptyMap());
+
+        public final String name;
+        public final Map<Setting, Integer> values;
+
+        private Profile(String name, Map<Setting, Integer> values) {
+            this.name = name;
+            this.values = values;
+        }
+
+        // Parses a Dart settings map ({printSpeed: 4, ...}); unknown keys are ignored
+        public static Profile fromMap(String name, Map<String, Object> map) {
+            Map<Setting, Integer> values = new EnumMap<>(Setting.class);
+            for (Setting setting : Setting.values()) {
+                Object value = map.get(setting.name);
+                if (value instanceof Integer) {
+                    values.put(setting, (Integer) value);
+                }
+            }
+            return new Profile(name, Collections.unmodifiableMap(values));
+        }
+    }
+
+    private final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+    // Values applied to each session, only touched on that session's printer thread
+    private final Map<PrinterTransport, Map<Setting, Integer>> appliedSettings =
+            Collections.synchronizedMap(new WeakHashMap<PrinterTransport, Map<Setting, Integer>>());
+
+    public void register(Profile profile) {
+        profiles.put(profile.name, profile);
+    }
+
+    public void remove(String name) {
+        profiles.remove(name);
+    }
+
+    public Profile get(String name) {
+        return profiles.get(name);
+    }
+
+    // Wraps the action so it runs after the profile is applied to the session
+    public PrinterConnectionPool.PrinterAction withProfile(Profile profile, PrinterConnectionPool.PrinterAction action) {
+        return printer -> {
+            int r = apply(printer, profile);
+            return r == LabelConst.CLS_SUCCESS ? action.run(printer) : r;
+        };
+    }
+
+    // Calls the setters whose value differs from what was last applied to this session.
+    // Must be called on the session's printer thread.
+    public int apply(PrinterTransport printer, Profile profile) {
+        Map<Setting, Integer> applied = appliedSettings.get(printer);
+        if (applied == null) {
+            applied = new EnumMap<>(Setting.class);
+            appliedSettings.put(printer, applied);
+        }
+        for (Map.Entry<Setting, Integer> entry : profile.values.entrySet()) {
+            Setting setting = entry.getKey();
+            int value = entry.getValue();
+            Integer current = applied.get(setting);
+            if (current == null) {
+                // First use on this session: start from what the session already holds
+                current = setting.read(printer);
+                applied.put(setting, current);
+            }
+            if (current == value) {
+                continue;
+            }
+            int r = setting.apply(printer, value);
+            if (r != LabelConst.CLS_SUCCESS) {
+                // The printer's value is unknown now: set it again next time
+                applied.remove(setting);
+                System.err.println("Unable to apply " + setting.name + "=" + value + " of profile " + profile.name + ": " + r);
+                return r;
+            }
+            applied.put(setting, value);
+        }
+        return LabelConst.CLS_SUCCESS;
+    }
+}
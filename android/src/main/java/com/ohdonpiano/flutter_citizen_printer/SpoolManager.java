@@ -0,0 +1,180 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.UUID;
+
+// Content-addressed spool for the image files handed to LabelDesign.drawBitmap.
+// Every payload is stored once under the hash of its content, so identical images share a file
+// and are not rewritten for every copy, and concurrent jobs never clobber each other's image.
+// Files are reference counted while jobs use them; released files stay cached for reuse and the
+// least recently used ones are deleted once the spool exceeds MAX_SPOOL_BYTES.
+class SpoolManager {
+    private static final long MAX_SPOOL_BYTES = 32L * 1024 * 1024; // Keep at most 32 MB of unused images
+    private static final String SPOOL_DIRECTORY = "citizen_spool";
+
+    // A spooled image in use by a job; release it once the job is done
+    static class SpoolFile {
+        public final String name;
+        public final File file;
+        public final long size;
+        private int references;
+
+        private SpoolFile(String name, File file, long size) {
+            this.name = name;
+            this.file = file;
+            this.size = size;
+        }
+
+        public String getPath() {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private final File directory;
+    private final LinkedHashMap<String, SpoolFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    public SpoolManager(Context context) {
+        directory = new File(context.getCacheDir(), SPOOL_DIRECTORY);
+        if (!directory.exists() && !directory.mkdirs()) {
+            System.err.println("Unable to create spool directory: " + directory);
+        }
+        adoptExistingFiles();
+    }
+
+    public SpoolFile acquire(byte[] data, String extension) throws IOException {
+        return acquire(data, data.length, extension);
+    }
+
+    // Returns the spool file holding the first length bytes of data, writing it only if no job
+    // has spooled the same content before
+    public SpoolFile acquire(byte[] data, int length, String extension) throws IOException {
+        return acquire(ByteBuffer.wrap(data, 0, length), extension);
+    }
+
+    // Same for the remaining bytes of a buffer, which may be direct: the content is hashed and
+    // written to the file straight from it. The buffer's position is left unchanged.
+    public SpoolFile acquire(ByteBuffer data, String extension) throws IOException {
+        int length = data.remaining();
+        String name = contentHash(data) + "." + extension;
+        synchronized (this) {
+            SpoolFile spoolFile = files.get(name);
+            if (spoolFile != null && spoolFile.file.exists()) {
+                spoolFile.references++;
+                return spoolFile;
+            }
+            if (spoolFile != null) {
+                // Deleted behind our back (cache cleared by the system)
+                forget(spoolFile);
+            }
+        }
+
+        // Write outside the lock under a unique name, then publish it with an atomic rename
+        File temp = new File(directory, UUID.randomUUID().toString() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            ByteBuffer remaining = data.duplicate();
+            FileChannel fileChannel = fos.getChannel();
+            while (remaining.hasRemaining()) {
+                fileChannel.write(remaining);
+            }
+        } finally {
+            fos.close();
+        }
+
+        synchronized (this) {
+            SpoolFile spoolFile = files.get(name);
+            if (spoolFile != null) {
+                // Another job spooled the same content meanwhile
+                temp.delete();
+            } else {
+                File file = new File(directory, name);
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                    throw new IOException("Unable to spool image to " + file);
+                }
+                spoolFile = new SpoolFile(name, file, length);
+                files.put(name, spoolFile);
+                totalBytes += length;
+            }
+            spoolFile.references++;
+            evictUnused();
+            return spoolFile;
+        }
+    }
+
+    public synchronized void release(SpoolFile spoolFile) {
+        if (spoolFile.references > 0) {
+            spoolFile.references--;
+        }
+        evictUnused();
+    }
+
+    public static String contentHash(byte[] data, int offset, int length) {
+        return contentHash(ByteBuffer.wrap(data, offset, length));
+    }
+
+    public static String contentHash(ByteBuffer data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(data.duplicate());
+            byte[] bytes = digest.digest();
+            StringBuilder builder = new StringBuilder();
+            for (byte b : bytes) {
+                builder.append(String.format(Locale.US, "%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Deletes the least recently used files no job is using until the spool fits its budget
+    private void evictUnused() {
+        Iterator<SpoolFile> iterator = files.values().iterator();
+        while (totalBytes > MAX_SPOOL_BYTES && iterator.hasNext()) {
+            SpoolFile spoolFile = iterator.next();
+            if (spoolFile.references == 0) {
+                iterator.remove();
+                totalBytes -= spoolFile.size;
+                spoolFile.file.delete();
+            }
+        }
+    }
+
+    private void forget(SpoolFile spoolFile) {
+        files.remove(spoolFile.name);
+        totalBytes -= spoolFile.size;
+    }
+
+    // Files left by a previous run are kept as unused cache entries, oldest first
+    private synchronized void adoptExistingFiles() {
+        File[] existing = directory.listFiles();
+        if (existing == null) {
+            return;
+        }
+        Arrays.sort(existing, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : existing) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            SpoolFile spoolFile = new SpoolFile(file.getName(), file, file.length());
+            files.put(spoolFile.name, spoolFile);
+            totalBytes += spoolFile.size;
+        }
+        evictUnused();
+    }
+}
@@ -0,0 +1,194 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.citizen.sdk.labelprint.LabelConst;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Polls printerCheck() on the pooled session of each monitored printer and pushes only the
+// changes of its status to Dart, instead of a connect/check/disconnect per query.
+// printerCheck() only returns a result code; the status itself is read from the SDK's getters
+// afterwards and encoded as the bitmask decoded by usb_status.dart.
+// Polls run on the printer's executor, queued behind its print jobs so they never compete for
+// the session. The latest status of every printer, including one-off queries, is kept for
+// cached reads.
+class StatusMonitor {
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+
+    // Status bits, as decoded by usb_status.dart
+    static final int STATUS_PAPER_EMPTY = 2;
+    static final int STATUS_RIBBON_EMPTY = 4;
+    static final int STATUS_PAUSE = 256;
+    static final int STATUS_LABEL_NOT_TAKEN = 512;
+
+    // Status bits that need an operator
+    private static final int OPERATOR_STATUS_MASK = STATUS_PAPER_EMPTY | STATUS_RIBBON_EMPTY;
+
+    // Last known status of a printer: the status bits read after a successful printerCheck(), or
+    // the connect or printerCheck() error code when the status could not be read
+    static class Snapshot {
+        public final int status;
+        public final int error; // LabelConst.CLS_SUCCESS if the status was read
+        public final boolean connected;
+        public final boolean printing;
+        public final long updated;
+
+        public Snapshot(int status, int error, boolean connected, boolean printing, long updated) {
+            this.status = status;
+            this.error = error;
+            this.connected = connected;
+            this.printing = printing;
+            this.updated = updated;
+        }
+
+        // True if the printer reports a condition only an operator can fix
+        public boolean needsOperator() {
+            return connected && ((status & OPERATOR_STATUS_MASK) != 0 || isOperatorError(error));
+        }
+
+        public boolean sameAs(Snapshot other) {
+            return status == other.status && error == other.error && connected == other.connected
+                    && printing == other.printing;
+        }
+
+        public Map<String, Object> toMap(String printerKey) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("printer", printerKey);
+            map.put("status", status);
+            map.put("error", error);
+            map.put("connected", connected);
+            map.put("printing", printing);
+            map.put("updated", updated);
+            return map;
+        }
+    }
+
+    // Result codes the printer returns for conditions an operator must fix (cover open, paper
+    // empty), as opposed to errors of the connection or of the job itself
+    static boolean isOperatorError(int code) {
+        return code == LabelConst.CLS_EPTR_COVER_OPEN || code == LabelConst.CLS_EPTR_REC_EMPTY;
+    }
+
+    // Polling state of a monitored printer, only touched on the main thread
+    private class Monitor implements Runnable {
+        public final PrinterTarget target;
+        public long intervalMs;
+        public boolean running = true;
+
+        public Monitor(PrinterTarget target, long intervalMs) {
+            this.target = target;
+            this.intervalMs = intervalMs;
+        }
+
+        @Override
+        public void run() {
+            if (!running) {
+                return;
+            }
+            executors.forPrinter(target.key).execute(() -> {
+                check(target);
+                handler.post(() -> {
+                    if (running) {
+                        handler.postDelayed(this, intervalMs);
+                    }
+                });
+            });
+        }
+    }
+
+    private final PrinterExecutors executors;
+    private final PrinterConnectionPool connectionPool;
+    private final EventBroadcaster statusEvents;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Monitor> monitors = new HashMap<>();
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    public StatusMonitor(PrinterExecutors executors, PrinterConnectionPool connectionPool, EventBroadcaster statusEvents) {
+        this.executors = executors;
+        this.connectionPool = connectionPool;
+        this.statusEvents = statusEvents;
+    }
+
+    // Starts polling the printer, or changes its interval if already monitored. Main thread only.
+    public void start(PrinterTarget target, long intervalMs) {
+        Monitor monitor = monitors.get(target.key);
+        if (monitor != null) {
+            monitor.intervalMs = intervalMs;
+            return;
+        }
+        monitor = new Monitor(target, intervalMs);
+        monitors.put(target.key, monitor);
+        handler.post(monitor);
+    }
+
+    // Main thread only
+    public void stop(String printerKey) {
+        Monitor monitor = monitors.remove(printerKey);
+        if (monitor != null) {
+            monitor.running = false;
+            handler.removeCallbacks(monitor);
+        }
+    }
+
+    // Main thread only
+    public void stopAll() {
+        for (Monitor monitor : monitors.values()) {
+            monitor.running = false;
+            handler.removeCallbacks(monitor);
+        }
+        monitors.clear();
+    }
+
+    // Latest known status, or null if the printer was never checked
+    public Snapshot cached(String printerKey) {
+        return snapshots.get(printerKey);
+    }
+
+    // Queries the printer on the calling thread (its executor) and records the result,
+    // sending an event if the status changed
+    public Snapshot check(PrinterTarget target) {
+        int[] checkRes = new int[1];
+        int[] status = new int[1];
+        boolean[] printing = new boolean[1];
+        int res = connectionPool.execute(target, printer -> {
+            checkRes[0] = printer.printerCheck();
+            if (checkRes[0] == LabelConst.CLS_SUCCESS) {
+                status[0] = readStatus(printer);
+                printing[0] = printer.getPrinting() == LabelConst.CLS_STS_YES;
+            }
+            // Let the pool reopen or drop a session that fails the check
+            return PrinterConnectionPool.isConnectionError(checkRes[0]) ? checkRes[0] : LabelConst.CLS_SUCCESS;
+        });
+        long now = System.currentTimeMillis();
+        Snapshot snapshot = res == LabelConst.CLS_SUCCESS
+                ? new Snapshot(status[0], checkRes[0], true, printing[0], now)
+                : new Snapshot(0, res, false, false, now);
+        Snapshot previous = snapshots.put(target.key, snapshot);
+        if (previous == null || !previous.sameAs(snapshot)) {
+            statusEvents.send(snapshot.toMap(target.key));
+        }
+        return snapshot;
+    }
+
+    // Status bits from the getters refreshed by a successful printerCheck()
+    private static int readStatus(PrinterTransport printer) {
+        int status = 0;
+        if (printer.getPaperError() == LabelConst.CLS_STS_YES) {
+            status |= STATUS_PAPER_EMPTY;
+        }
+        if (printer.getRibbonEnd() == LabelConst.CLS_STS_YES) {
+            status |= STATUS_RIBBON_EMPTY;
+        }
+        if (printer.getPause() == LabelConst.CLS_STS_YES) {
+            status |= STATUS_PAUSE;
+        }
+        if (printer.getWaitingForPeeling() == LabelConst.CLS_STS_YES) {
+            status |= STATUS_LABEL_NOT_TAKEN;
+        }
+        return status;
+    }
+}
@@ -0,0 +1,196 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Long-lived view of the attached USB devices, kept up to date by the system's attach/detach
+// broadcasts instead of re-enumerating UsbManager.getDeviceList() on every print.
+// Lookups by device ID are O(1) and safe from any thread. Jobs whose device is not attached yet
+// (e.g. still enumerating after a permission grant) wait for it and resume as soon as it appears.
+// Waiters are only touched on the main thread.
+class UsbDeviceRegistry {
+
+    // Called on the main thread with the device, or with null if it did not appear in time
+    interface DeviceCallback {
+        void onDevice(UsbDevice device);
+    }
+
+    // Called on the main thread when a device is unplugged
+    interface DetachListener {
+        void onDetached(UsbDevice device);
+    }
+
+    private static class Waiter {
+        public final DeviceCallback callback;
+        public Runnable timeout;
+
+        public Waiter(DeviceCallback callback) {
+            this.callback = callback;
+        }
+    }
+
+    private final Context context;
+    private final UsbManager usbManager;
+    private final DetachListener detachListener;
+    private final Map<String, UsbDevice> devices = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> permissions = new ConcurrentHashMap<>();
+    private final Map<String, List<Waiter>> waiters = new HashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private BroadcastReceiver receiver;
+
+    public UsbDeviceRegistry(Context context, UsbManager usbManager, DetachListener detachListener) {
+        this.context = context;
+        this.usbManager = usbManager;
+        this.detachListener = detachListener;
+    }
+
+    // Enumerates the devices once, then follows attach/detach broadcasts
+    public void start() {
+        for (UsbDevice device : usbManager.getDeviceList().values()) {
+            devices.put(key(device), device);
+        }
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                UsbDevice device = (UsbDevice) intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+                if (device == null) {
+                    return;
+                }
+                if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(intent.getAction())) {
+                    onAttached(device);
+                } else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(intent.getAction())) {
+                    onDetached(device);
+                }
+            }
+        };
+        IntentFilter filter = new IntentFilter(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+        filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.TIRAMISU) {
+            context.registerReceiver(receiver, filter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            context.registerReceiver(receiver, filter);
+        }
+    }
+
+    // Main thread only; pending waiters are answered with null
+    public void stop() {
+        if (receiver != null) {
+            try {
+                context.unregisterReceiver(receiver);
+            } catch (IllegalArgumentException e) {
+                // Receiver might already be unregistered
+            }
+            receiver = null;
+        }
+        List<Waiter> pending = new ArrayList<>();
+        for (List<Waiter> list : waiters.values()) {
+            pending.addAll(list);
+        }
+        waiters.clear();
+        for (Waiter waiter : pending) {
+            handler.removeCallbacks(waiter.timeout);
+            waiter.callback.onDevice(null);
+        }
+    }
+
+    public UsbDevice get(String deviceId) {
+        return devices.get(deviceId);
+    }
+
+    public Collection<UsbDevice> getDevices() {
+        return devices.values();
+    }
+
+    // The attached Citizen printer with the lowest device ID, or null if there is none. Used as the
+    // default USB printer so that it always maps to the same device while it stays attached.
+    public UsbDevice defaultPrinter() {
+        UsbDevice first = null;
+        for (UsbDevice device : devices.values()) {
+            String manufacturerName = device.getManufacturerName();
+            if (manufacturerName != null && manufacturerName.toUpperCase().contains("CITIZEN")
+                    && (first == null || device.getDeviceId() < first.getDeviceId())) {
+                first = device;
+            }
+        }
+        return first;
+    }
+
+    // Permission state as last reported by a permission broadcast, falling back to UsbManager
+    public boolean hasPermission(UsbDevice device) {
+        Boolean granted = permissions.get(key(device));
+        if (granted == null || !granted) {
+            granted = usbManager.hasPermission(device);
+            permissions.put(key(device), granted);
+        }
+        return granted;
+    }
+
+    public void onPermissionResult(UsbDevice device, boolean granted) {
+        permissions.put(key(device), granted);
+    }
+
+    // Main thread only. Calls back at once if the device is attached, otherwise when it is
+    // attached or after timeoutMs with null.
+    public void awaitDevice(String deviceId, long timeoutMs, DeviceCallback callback) {
+        UsbDevice device = devices.get(deviceId);
+        if (device != null) {
+            callback.onDevice(device);
+            return;
+        }
+        Waiter waiter = new Waiter(callback);
+        List<Waiter> list = waiters.get(deviceId);
+        if (list == null) {
+            list = new ArrayList<>();
+            waiters.put(deviceId, list);
+        }
+        list.add(waiter);
+        waiter.timeout = () -> {
+            List<Waiter> current = waiters.get(deviceId);
+            if (current != null && current.remove(waiter)) {
+                if (current.isEmpty()) {
+                    waiters.remove(deviceId);
+                }
+                callback.onDevice(null);
+            }
+        };
+        handler.postDelayed(waiter.timeout, timeoutMs);
+    }
+
+    private void onAttached(UsbDevice device) {
+        String key = key(device);
+        devices.put(key, device);
+        System.out.println("USB device attached: " + key);
+        List<Waiter> list = waiters.remove(key);
+        if (list != null) {
+            for (Waiter waiter : list) {
+                handler.removeCallbacks(waiter.timeout);
+                waiter.callback.onDevice(device);
+            }
+        }
+    }
+
+    private void onDetached(UsbDevice device) {
+        String key = key(device);
+        devices.remove(key);
+        permissions.remove(key);
+        System.out.println("USB device detached: " + key);
+        detachListener.onDetached(device);
+    }
+
+    private static String key(UsbDevice device) {
+        return String.valueOf(device.getDeviceId());
+    }
+}
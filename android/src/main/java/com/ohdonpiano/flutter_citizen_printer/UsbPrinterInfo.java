@@ -0,0 +1,53 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.hardware.usb.UsbDevice;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Class to represent USB printer information
+class UsbPrinterInfo {
+    public String deviceId;
+    public String deviceName;
+    public String manufacturerName;
+    public String productName;
+    public int vendorId;
+    public int productId;
+    public volatile String serialNumber; // Read when a search completes, possibly on another thread
+    public UsbDevice usbDevice;
+
+    public UsbPrinterInfo(UsbDevice device) {
+        this.usbDevice = device;
+        this.deviceId = String.valueOf(device.getDeviceId());
+        this.deviceName = device.getDeviceName();
+        this.manufacturerName = device.getManufacturerName() != null ? device.getManufacturerName() : "";
+        this.productName = device.getProductName() != null ? device.getProductName() : "";
+        this.vendorId = device.getVendorId();
+        this.productId = device.getProductId();
+        this.serialNumber = ""; // Will be populated later with permission
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("deviceId", deviceId);
+        map.put("deviceName", deviceName);
+        map.put("manufacturerName", manufacturerName);
+        map.put("productName", productName);
+        map.put("vendorId", vendorId);
+        map.put("productId", productId);
+        map.put("serialNumber", serialNumber);
+        return map;
+    }
+
+    public String toString() {
+        return "UsbPrinterInfo{" +
+                "deviceId='" + deviceId + '\'' +
+                ", deviceName='" + deviceName + '\'' +
+                ", manufacturerName='" + manufacturerName + '\'' +
+                ", productName='" + productName + '\'' +
+                ", vendorId=" + vendorId +
+                ", productId=" + productId +
+                ", serialNumber='" + serialNumber + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,46 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.usb.UsbDevice;
+
+import java.util.Locale;
+
+// Serial numbers of USB printers, persisted across app restarts.
+// Reading a serial needs USB permission, so once a device's serial is known it is kept under
+// vendorId/productId/deviceName and repeat searches return it without touching the device.
+class UsbSerialCache {
+    private static final String PREFERENCES_NAME = "flutter_citizen_printer_usb_serials";
+
+    private final SharedPreferences preferences;
+
+    public UsbSerialCache(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    // Cached serial of the device, or null if it was never read
+    public String get(UsbDevice device) {
+        return preferences.getString(key(device), null);
+    }
+
+    // Reads the serial from a device we have permission for and caches it.
+    // Returns null if it cannot be read.
+    public String read(UsbDevice device) {
+        try {
+            String serialNumber = device.getSerialNumber();
+            if (serialNumber != null && !serialNumber.isEmpty()) {
+                preferences.edit().putString(key(device), serialNumber).apply();
+            }
+            return serialNumber;
+        } catch (SecurityException e) {
+            System.err.println("Security exception reading serial number for device " + device.getDeviceId() + ": " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Error reading serial number for device " + device.getDeviceId() + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    private static String key(UsbDevice device) {
+        return String.format(Locale.US, "%04x:%04x:%s", device.getVendorId(), device.getProductId(), device.getDeviceName());
+    }
+}
@@ -0,0 +1,104 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.citizen.sdk.labelprint.LabelConst;
+import com.citizen.sdk.labelprint.LabelDesign;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+class BandedPrintTest {
+    private static final long PRINT_LATENCY_MICROS = 200000;
+
+    private FakePrintPipeline pipeline;
+    private final PrinterTarget target = PrinterTarget.wifi("192.0.2.10");
+
+    @BeforeEach
+    void setUp() {
+        pipeline = new FakePrintPipeline(new FakePrinterTransport.Device(0, PRINT_LATENCY_MICROS), (jobId, result) -> {
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.close();
+    }
+
+    @Test
+    void cancelStopsTheLabelWhenTheQueueIsFull() throws Exception {
+        BandedPrint bandedPrint = new BandedPrint("cancel", target, null, pipeline.connectionPool, pipeline.executors,
+                (printer, bytes) -> printer.print(new LabelDesign(), 1));
+        List<Integer> bandResults = new CopyOnWriteArrayList<>();
+        CompletableFuture<Integer> finished = new CompletableFuture<>();
+        pipeline.mainThread.run(() -> {
+            bandedPrint.start();
+            for (int i = 0; i < 2; i++) {
+                assertTrue(bandedPrint.addBand(new byte[1], 300, callback(bandResults)));
+            }
+        });
+        // Wait until the first band is printing, then fill the queue up to the FINISH marker
+        while (pipeline.device.openSessions.get() == 0) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        pipeline.mainThread.run(() -> {
+            for (int i = 0; i < BandedPrint.QUEUE_CAPACITY; i++) {
+                assertTrue(bandedPrint.addBand(new byte[1], 300, callback(bandResults)));
+            }
+            bandedPrint.finish(callback(finished));
+            bandedPrint.cancel();
+        });
+
+        assertEquals(LabelConst.CLS_E_FAILURE, finished.get(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.device.prints.get() < 1 + BandedPrint.QUEUE_CAPACITY, "printed " + pipeline.device.prints.get() + " bands");
+        pipeline.mainThread.sync();
+        assertEquals(2 + BandedPrint.QUEUE_CAPACITY, bandResults.size());
+        assertEquals(LabelConst.CLS_SUCCESS, bandResults.get(0));
+        for (int i = 1; i < bandResults.size(); i++) {
+            assertTrue(bandResults.get(i) != LabelConst.CLS_SUCCESS);
+        }
+    }
+
+    @Test
+    void bandLengthFollowsTheMeasurementUnit() {
+        // 300 dots drawn at 300 dpi: one inch
+        assertEquals(254, BandedPrint.mediaLength(300, LabelConst.CLS_UNIT_MILLI));
+        assertEquals(100, BandedPrint.mediaLength(300, LabelConst.CLS_UNIT_INCH));
+    }
+
+    private static PrinterExecutors.Callback<Integer> callback(List<Integer> results) {
+        return new PrinterExecutors.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer value) {
+                results.add(value);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                results.add(-1);
+            }
+        };
+    }
+
+    private static PrinterExecutors.Callback<Integer> callback(CompletableFuture<Integer> result) {
+        return new PrinterExecutors.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer value) {
+                result.complete(value);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                result.completeExceptionally(e);
+            }
+        };
+    }
+}
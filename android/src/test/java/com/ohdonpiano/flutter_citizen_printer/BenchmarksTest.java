@@ -0,0 +1,132 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs the JMH benchmarks of this package and compares them with the checked-in baseline,
+// src/test/resources/benchmarks/baseline.csv. Skipped unless asked for:
+//   ./gradlew testDebugUnitTest --tests '*BenchmarksTest' -Pbenchmarks
+// The scores are written to build/benchmarks/results.csv. A score worse than its baseline by more
+// than the tolerance (-Pbenchmarks.tolerance, default 0.5) fails the test. Baselines only hold
+// on comparable machines: after an intended change, or on a new reference machine, copy
+// results.csv over the baseline.
+// The benchmarks run in the test JVM (no fork), where the mocked main thread and the test
+// classpath are available.
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+class BenchmarksTest {
+    private static final String BASELINE = "/benchmarks/baseline.csv";
+
+    @Test
+    void noRegressionAgainstBaseline() throws Exception {
+        File output = new File(System.getProperty("benchmarks.output", "build/benchmarks"));
+        output.mkdirs();
+        File results = new File(output, "results.csv");
+        Options options = new OptionsBuilder()
+                .include(getClass().getPackage().getName() + "\\..*Benchmark")
+                .forks(0)
+                .warmupIterations(2)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .resultFormat(ResultFormatType.CSV)
+                .result(results.getPath())
+                .build();
+        new Runner(options).run();
+
+        double tolerance = Double.parseDouble(System.getProperty("benchmarks.tolerance", "0.5"));
+        Map<String, Score> baseline;
+        try (InputStream in = getClass().getResourceAsStream(BASELINE)) {
+            baseline = readScores(in);
+        }
+        Map<String, Score> current;
+        try (InputStream in = new FileInputStream(results)) {
+            current = readScores(in);
+        }
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.println("No baseline for " + entry.getKey());
+                continue;
+            }
+            Score score = entry.getValue();
+            // Throughput is better when higher, average time when lower
+            double change = score.higherIsBetter ? base.value / score.value - 1 : score.value / base.value - 1;
+            System.out.println(entry.getKey() + ": " + score.value + " " + score.unit + " (baseline " + base.value + ")");
+            if (change > tolerance) {
+                regressions.add(entry.getKey() + ": " + score.value + " " + score.unit + " against " + base.value);
+            }
+        }
+        assertTrue(regressions.isEmpty(), "Slower than the baseline: " + regressions);
+    }
+
+    // A benchmark score from a JMH CSV file
+    private static class Score {
+        public final double value;
+        public final String unit;
+        public final boolean higherIsBetter;
+
+        public Score(double value, String unit, boolean higherIsBetter) {
+            this.value = value;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+
+    // Scores of a JMH CSV file keyed by benchmark and parameters; leading # lines are comments
+    private static Map<String, Score> readScores(InputStream in) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        while (line != null && line.startsWith("#")) {
+            line = reader.readLine();
+        }
+        List<String> header = splitCsv(line);
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+        while ((line = reader.readLine()) != null) {
+            List<String> fields = splitCsv(line);
+            StringBuilder key = new StringBuilder(fields.get(benchmark));
+            for (int i = unit + 1; i < fields.size(); i++) {
+                if (fields.get(i).isEmpty()) {
+                    // Parameter of another benchmark
+                    continue;
+                }
+                key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+            }
+            scores.put(key.toString(), new Score(Double.parseDouble(fields.get(score)), fields.get(unit),
+                    "thrpt".equals(fields.get(mode))));
+        }
+        return scores;
+    }
+
+    // Fields of a JMH CSV line: quoted strings and bare numbers, no embedded quotes
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        for (String field : line.split(",", -1)) {
+            fields.add(field.startsWith("\"") && field.endsWith("\"") ? field.substring(1, field.length() - 1) : field);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,33 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+// The print path of PrinterService (executors, pool, status monitor, retry policy and job queue)
+// wired to a fake printer, for tests and benchmarks on a plain JVM. Create and close it on the
+// same thread.
+final class FakePrintPipeline implements AutoCloseable {
+    public final TestMainThread mainThread = new TestMainThread();
+    public final FakePrinterTransport.Device device;
+    public final PrinterExecutors executors;
+    public final PrintMetrics metrics;
+    public final PrinterConnectionPool connectionPool;
+    public final StatusMonitor statusMonitor;
+    public final RetryPolicy retryPolicy;
+    public final EventBroadcaster jobEvents = new EventBroadcaster();
+    public final PrintJobQueue printJobQueue;
+
+    FakePrintPipeline(FakePrinterTransport.Device device, PrintJobQueue.JobListener jobListener) {
+        this.device = device;
+        executors = new PrinterExecutors();
+        metrics = new PrintMetrics();
+        connectionPool = new PrinterConnectionPool(device.factory(), executors, metrics);
+        statusMonitor = new StatusMonitor(executors, connectionPool, new EventBroadcaster());
+        retryPolicy = new RetryPolicy(connectionPool, statusMonitor, metrics);
+        printJobQueue = new PrintJobQueue(executors, retryPolicy, jobEvents, metrics, jobListener);
+    }
+
+    @Override
+    public void close() {
+        connectionPool.closeAll();
+        executors.shutdown();
+        mainThread.close();
+    }
+}
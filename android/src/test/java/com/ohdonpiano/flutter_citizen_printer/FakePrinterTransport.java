@@ -0,0 +1,284 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.CitizenPrinterInfo;
+import com.citizen.sdk.labelprint.LabelConst;
+import com.citizen.sdk.labelprint.LabelDesign;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// In-memory PrinterTransport for running the print path on a plain JVM.
+// All sessions created by a Device's factory talk to that one fake printer: it sleeps for the
+// configured latencies, returns the configured result codes and counts what it was sent.
+// Page settings live on the session, like on a LabelPrinter, and start unset.
+class FakePrinterTransport implements PrinterTransport {
+
+    // A fake printer shared by its sessions; fields may be changed between or during runs
+    static class Device {
+        public volatile long connectLatencyMicros;
+        public volatile long printLatencyMicros; // Per print() call
+        public volatile long searchLatencyMicros;
+        public volatile int connectResult = LabelConst.CLS_SUCCESS;
+        public volatile int printResult = LabelConst.CLS_SUCCESS;
+        public volatile int checkResult = LabelConst.CLS_SUCCESS;
+        public volatile int paperError = LabelConst.CLS_STS_NO;
+        public volatile int ribbonEnd = LabelConst.CLS_STS_NO;
+        public volatile int measurementUnit = LabelConst.CLS_UNIT_MILLI;
+        public volatile CitizenPrinterInfo[] discovered = new CitizenPrinterInfo[0];
+
+        public final AtomicInteger connects = new AtomicInteger();
+        public final AtomicInteger disconnects = new AtomicInteger();
+        public final AtomicInteger openSessions = new AtomicInteger();
+        public final AtomicInteger prints = new AtomicInteger();
+        public final AtomicInteger copies = new AtomicInteger();
+        public final AtomicInteger settingWrites = new AtomicInteger();
+
+        public Device() {
+        }
+
+        public Device(long connectLatencyMicros, long printLatencyMicros) {
+            this.connectLatencyMicros = connectLatencyMicros;
+            this.printLatencyMicros = printLatencyMicros;
+        }
+
+        public PrinterTransport.Factory factory() {
+            return () -> new FakePrinterTransport(this);
+        }
+    }
+
+    private final Device device;
+    private boolean connected;
+    private int continuousMediaLength;
+    private int mediaHandling = LabelConst.CLS_MEDIAHANDLING_NONE;
+    private int labelSensor = LabelConst.CLS_SELSENSOR_NONE;
+    private int printSpeed;
+    private int feedSpeed;
+    private int printDarkness;
+    private int verticalOffset;
+    private int horizontalOffset;
+    private int startOffset;
+    private int stopOffset;
+
+    public FakePrinterTransport(Device device) {
+        this.device = device;
+    }
+
+    @Override
+    public CitizenPrinterInfo[] searchCitizenPrinter(int portType, int timeout, int[] result) {
+        pause(device.searchLatencyMicros);
+        result[0] = LabelConst.CLS_SUCCESS;
+        return device.discovered;
+    }
+
+    @Override
+    public String[] searchLabelPrinter(int portType, int timeout, int[] result) {
+        CitizenPrinterInfo[] found = searchCitizenPrinter(portType, timeout, result);
+        String[] addresses = new String[found.length];
+        for (int i = 0; i < found.length; i++) {
+            addresses[i] = found[i].ipAddress;
+        }
+        return addresses;
+    }
+
+    @Override
+    public int connect(PrinterTarget target) {
+        if (connected) {
+            return LabelConst.CLS_E_CONNECTED;
+        }
+        pause(device.connectLatencyMicros);
+        device.connects.incrementAndGet();
+        int r = device.connectResult;
+        if (r == LabelConst.CLS_SUCCESS) {
+            connected = true;
+            device.openSessions.incrementAndGet();
+        }
+        return r;
+    }
+
+    @Override
+    public int disconnect() {
+        if (!connected) {
+            return LabelConst.CLS_E_NOTCONNECT;
+        }
+        connected = false;
+        device.disconnects.incrementAndGet();
+        device.openSessions.decrementAndGet();
+        return LabelConst.CLS_SUCCESS;
+    }
+
+    @Override
+    public int printerCheck() {
+        return connected ? device.checkResult : LabelConst.CLS_E_NOTCONNECT;
+    }
+
+    @Override
+    public int getPaperError() {
+        return device.paperError;
+    }
+
+    @Override
+    public int getRibbonEnd() {
+        return device.ribbonEnd;
+    }
+
+    @Override
+    public int getPause() {
+        return LabelConst.CLS_STS_NO;
+    }
+
+    @Override
+    public int getPrinting() {
+        return LabelConst.CLS_STS_NO;
+    }
+
+    @Override
+    public int getWaitingForPeeling() {
+        return LabelConst.CLS_STS_NO;
+    }
+
+    @Override
+    public int print(LabelDesign design, int copies) {
+        if (!connected) {
+            return LabelConst.CLS_E_NOTCONNECT;
+        }
+        pause(device.printLatencyMicros);
+        int r = device.printResult;
+        if (r == LabelConst.CLS_SUCCESS) {
+            device.prints.incrementAndGet();
+            device.copies.addAndGet(copies);
+        }
+        return r;
+    }
+
+    @Override
+    public int storeNVBitmap(String path, String name, int rotation, int width, int height) {
+        return connected ? LabelConst.CLS_SUCCESS : LabelConst.CLS_E_NOTCONNECT;
+    }
+
+    @Override
+    public int getMeasurementUnit() {
+        return device.measurementUnit;
+    }
+
+    @Override
+    public int setContinuousMediaLength(int length) {
+        continuousMediaLength = length;
+        return settingWritten();
+    }
+
+    @Override
+    public int getContinuousMediaLength() {
+        return continuousMediaLength;
+    }
+
+    @Override
+    public int setMediaHandling(int mediaHandling) {
+        this.mediaHandling = mediaHandling;
+        return settingWritten();
+    }
+
+    @Override
+    public int getMediaHandling() {
+        return mediaHandling;
+    }
+
+    @Override
+    public int setLabelSensor(int sensor) {
+        labelSensor = sensor;
+        return settingWritten();
+    }
+
+    @Override
+    public int getLabelSensor() {
+        return labelSensor;
+    }
+
+    @Override
+    public int setPrintSpeed(int speed) {
+        printSpeed = speed;
+        return settingWritten();
+    }
+
+    @Override
+    public int getPrintSpeed() {
+        return printSpeed;
+    }
+
+    @Override
+    public int setFeedSpeed(int speed) {
+        feedSpeed = speed;
+        return settingWritten();
+    }
+
+    @Override
+    public int getFeedSpeed() {
+        return feedSpeed;
+    }
+
+    @Override
+    public int setPrintDarkness(int darkness) {
+        printDarkness = darkness;
+        return settingWritten();
+    }
+
+    @Override
+    public int getPrintDarkness() {
+        return printDarkness;
+    }
+
+    @Override
+    public int setVerticalOffset(int offset) {
+        verticalOffset = offset;
+        return settingWritten();
+    }
+
+    @Override
+    public int getVerticalOffset() {
+        return verticalOffset;
+    }
+
+    @Override
+    public int setHorizontalOffset(int offset) {
+        horizontalOffset = offset;
+        return settingWritten();
+    }
+
+    @Override
+    public int getHorizontalOffset() {
+        return horizontalOffset;
+    }
+
+    @Override
+    public int setStartOffset(int offset) {
+        startOffset = offset;
+        return settingWritten();
+    }
+
+    @Override
+    public int getStartOffset() {
+        return startOffset;
+    }
+
+    @Override
+    public int setStopOffset(int offset) {
+        stopOffset = offset;
+        return settingWritten();
+    }
+
+    @Override
+    public int getStopOffset() {
+        return stopOffset;
+    }
+
+    private int settingWritten() {
+        device.settingWrites.incrementAndGet();
+        return LabelConst.CLS_SUCCESS;
+    }
+
+    private static void pause(long micros) {
+        if (micros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Dithering a label-sized image to a 1-bit BMP. Decoding and scaling need Android's
+// BitmapFactory and are not covered: the image is handed over as ARGB pixels.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImagePreprocessorBenchmark {
+    // 4 x 6 inch label at 203 dpi
+    static final int WIDTH = 812;
+    static final int HEIGHT = 1218;
+
+    @Param({ImagePreprocessor.DITHER_FLOYD_STEINBERG, ImagePreprocessor.DITHER_ORDERED, ImagePreprocessor.DITHER_THRESHOLD})
+    public String dither;
+
+    private final ImagePreprocessor preprocessor = new ImagePreprocessor();
+    private int[] pixels;
+
+    @Setup
+    public void setUp() {
+        pixels = photoPixels(WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public ImagePreprocessor.Result process() {
+        return preprocessor.process(pixels, WIDTH, HEIGHT, dither);
+    }
+
+    // Opaque colour gradients with noise, roughly what a photo looks like to the ditherer
+    static int[] photoPixels(int width, int height) {
+        Random random = new Random(42);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(48) - 24;
+                int r = clamp(x * 255 / width + noise);
+                int g = clamp(y * 255 / height + noise);
+                int b = clamp((x + y) * 255 / (width + height) + noise);
+                pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
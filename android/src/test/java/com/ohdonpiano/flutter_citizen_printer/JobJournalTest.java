@@ -0,0 +1,121 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+
+import com.citizen.sdk.labelprint.LabelConst;
+import com.citizen.sdk.labelprint.LabelDesign;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+class JobJournalTest {
+    private static final int JOBS = 20;
+
+    private final AtomicReference<JobJournal> queueJournal = new AtomicReference<>();
+    private FakePrintPipeline pipeline;
+    private PrinterExecutors executors;
+    private File filesDir;
+    private Context context;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        pipeline = new FakePrintPipeline(new FakePrinterTransport.Device(0, 20000),
+                (jobId, result) -> queueJournal.get().onJobEnded(jobId, result));
+        executors = pipeline.executors;
+        filesDir = Files.createTempDirectory("journal").toFile();
+        context = mock(Context.class);
+        when(context.getFilesDir()).thenReturn(filesDir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.close();
+        TestFiles.deleteRecursively(filesDir);
+    }
+
+    @Test
+    void outcomesAfterCloseAreJournaled() throws Exception {
+        JobJournal journal = new JobJournal(context, executors);
+        assertEquals(0, open(journal).size());
+        journal.recordSubmitted(entry("a"), new byte[]{1, 2, 3});
+        journal.recordSubmitted(entry("b"), new byte[]{4, 5, 6});
+        journal.onJobEnded("a", LabelConst.CLS_SUCCESS);
+        // Job b is still draining from its queue when the journal is closed
+        journal.close();
+        journal.onJobEnded("b", LabelConst.CLS_SUCCESS);
+
+        assertEquals(0, open(new JobJournal(context, executors)).size());
+    }
+
+    @Test
+    void unfinishedJobsAreReplayed() throws Exception {
+        JobJournal journal = new JobJournal(context, executors);
+        open(journal);
+        journal.recordSubmitted(entry("a"), new byte[]{1, 2, 3});
+        journal.recordSubmitted(entry("b"), new byte[]{4, 5, 6});
+        journal.onJobEnded("a", LabelConst.CLS_SUCCESS);
+        journal.close();
+        // Submitted after close: not journaled
+        journal.recordSubmitted(entry("c"), new byte[]{7});
+
+        List<JobJournal.Entry> replayed = open(new JobJournal(context, executors));
+        assertEquals(1, replayed.size());
+        assertEquals("b", replayed.get(0).jobId);
+    }
+
+    // Shut down as PrinterService does: the queues drain before the journal closes, so the jobs
+    // they print are not replayed
+    @Test
+    void jobsDrainedAtShutdownAreNotReplayed() throws Exception {
+        JobJournal journal = new JobJournal(context, executors);
+        queueJournal.set(journal);
+        open(journal);
+        PrinterTarget target = PrinterTarget.wifi("192.0.2.10");
+        LabelDesign design = new LabelDesign();
+        for (int i = 0; i < JOBS; i++) {
+            JobJournal.Entry entry = entry("job" + i);
+            journal.recordSubmitted(entry, new byte[]{(byte) i});
+            pipeline.printJobQueue.submit(target, quantity -> new PrintJobQueue.PreparedLabel() {
+                @Override
+                public int transmit(PrinterTransport printer) {
+                    return printer.print(design, quantity);
+                }
+
+                @Override
+                public void release() {
+                }
+            }, 1, null, entry.jobId, null);
+        }
+
+        executors.drain(JobJournal.JOURNAL_KEY, 10000);
+        journal.close();
+        executors.shutdown();
+        assertTrue(executors.awaitTermination(10000));
+
+        assertEquals(JOBS, pipeline.device.prints.get());
+        assertEquals(0, open(new JobJournal(context, new PrinterExecutors())).size());
+    }
+
+    private static JobJournal.Entry entry(String jobId) {
+        return new JobJournal.Entry(jobId, "wifi", "192.0.2.10", 0, 0, null, SettingsProfiles.Profile.NONE, 1);
+    }
+
+    private static List<JobJournal.Entry> open(JobJournal journal) throws Exception {
+        CompletableFuture<List<JobJournal.Entry>> replayed = new CompletableFuture<>();
+        journal.open(replayed::complete);
+        return replayed.get(5, TimeUnit.SECONDS);
+    }
+}
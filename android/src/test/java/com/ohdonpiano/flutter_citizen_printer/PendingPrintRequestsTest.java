@@ -0,0 +1,94 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class PendingPrintRequestsTest {
+    private static final int ADDERS = 8;
+    private static final int REQUESTS_PER_ADDER = 20000;
+    private static final String[] DEVICES = {"1001", "1002", "1003"};
+
+    // Prints join the lists while answers take them: every print is taken exactly once, and each
+    // list taken was opened by exactly one prompt
+    @Test
+    void everyRequestIsTakenOnceUnderContention() throws Exception {
+        PendingPrintRequests pending = new PendingPrintRequests();
+        AtomicInteger prompts = new AtomicInteger();
+        AtomicInteger answeredLists = new AtomicInteger();
+        Set<PrinterService.PendingPrintRequest> taken = Collections.newSetFromMap(new IdentityHashMap<>());
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicBoolean adding = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(ADDERS + 1);
+        try {
+            List<Future<?>> adders = new ArrayList<>();
+            for (int a = 0; a < ADDERS; a++) {
+                int adder = a;
+                adders.add(threads.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < REQUESTS_PER_ADDER; i++) {
+                        String deviceId = DEVICES[(adder + i) % DEVICES.length];
+                        if (pending.add(deviceId, new PrinterService.PendingPrintRequest(null, null))) {
+                            prompts.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            Future<?> answers = threads.submit(() -> {
+                start.await();
+                while (adding.get()) {
+                    for (String deviceId : DEVICES) {
+                        take(pending, deviceId, taken, answeredLists, duplicates);
+                    }
+                }
+                return null;
+            });
+            start.countDown();
+            for (Future<?> adder : adders) {
+                adder.get(60, TimeUnit.SECONDS);
+            }
+            adding.set(false);
+            answers.get(60, TimeUnit.SECONDS);
+        } finally {
+            threads.shutdownNow();
+        }
+        for (String deviceId : DEVICES) {
+            take(pending, deviceId, taken, answeredLists, duplicates);
+        }
+
+        assertEquals(0, duplicates.get());
+        assertEquals(ADDERS * REQUESTS_PER_ADDER, taken.size());
+        assertEquals(prompts.get(), answeredLists.get());
+        assertTrue(pending.deviceIds().isEmpty());
+    }
+
+    private static void take(PendingPrintRequests pending, String deviceId, Set<PrinterService.PendingPrintRequest> taken,
+                             AtomicInteger answeredLists, AtomicInteger duplicates) {
+        List<PrinterService.PendingPrintRequest> requests = pending.take(deviceId);
+        if (requests.isEmpty()) {
+            return;
+        }
+        answeredLists.incrementAndGet();
+        for (PrinterService.PendingPrintRequest request : requests) {
+            if (!taken.add(request)) {
+                duplicates.incrementAndGet();
+            }
+        }
+    }
+}
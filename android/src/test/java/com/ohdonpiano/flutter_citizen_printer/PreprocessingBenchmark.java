@@ -0,0 +1,93 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.imageio.ImageIO;
+
+// Time per label and bytes sent for a photo label, with and without on-device preprocessing.
+// The bytes sent per label do not vary and are printed at the end of each run.
+// Without it the PNG from Dart is spooled and sent as is; with it the image is dithered to a
+// 1-bit BMP at the label size first. Sending is modelled as a link of linkKbps kilobytes per
+// second, as the fake printer has no wire. Decoding and scaling need Android's BitmapFactory,
+// so the preprocessed path starts from pixels already at the label size and its time is a lower
+// bound; the SDK's own scaling of the PNG on the other path is not counted either.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PreprocessingBenchmark {
+    @Param({"1000"})
+    public int linkKbps;
+
+    private File cacheDir;
+    private SpoolManager spoolManager;
+    private final ImagePreprocessor preprocessor = new ImagePreprocessor();
+    private int[] pixels;
+    private byte[] png;
+    private long bytesSent;
+
+    @Setup
+    public void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("preprocessing-benchmark").toFile();
+        Context context = mock(Context.class);
+        when(context.getCacheDir()).thenReturn(cacheDir);
+        spoolManager = new SpoolManager(context);
+
+        int width = ImagePreprocessorBenchmark.WIDTH;
+        int height = ImagePreprocessorBenchmark.HEIGHT;
+        pixels = ImagePreprocessorBenchmark.photoPixels(width, height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        png = out.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("Bytes sent per label: " + bytesSent);
+        TestFiles.deleteRecursively(cacheDir);
+    }
+
+    @Benchmark
+    public SpoolManager.SpoolFile original() throws IOException {
+        SpoolManager.SpoolFile spoolFile = spoolManager.acquire(png, "png");
+        send(spoolFile);
+        return spoolFile;
+    }
+
+    @Benchmark
+    public SpoolManager.SpoolFile preprocessed() throws IOException {
+        ImagePreprocessor.Result processed = preprocessor.process(pixels, ImagePreprocessorBenchmark.WIDTH,
+                ImagePreprocessorBenchmark.HEIGHT, ImagePreprocessor.DITHER_FLOYD_STEINBERG);
+        SpoolManager.SpoolFile spoolFile = spoolManager.acquire(processed.data, processed.length, "bmp");
+        send(spoolFile);
+        return spoolFile;
+    }
+
+    private void send(SpoolManager.SpoolFile spoolFile) {
+        LockSupport.parkNanos(spoolFile.size * 1000000L / linkKbps);
+        spoolManager.release(spoolFile);
+        bytesSent = spoolFile.size;
+    }
+}
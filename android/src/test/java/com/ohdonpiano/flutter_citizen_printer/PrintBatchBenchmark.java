@@ -0,0 +1,78 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.LabelConst;
+import com.citizen.sdk.labelprint.LabelDesign;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+// Labels per second for a batch of LABELS different labels: printBatch's single session against
+// the per-call path it replaces, which connects, prints one label and disconnects for each.
+// Only the printer round trips are compared; drawing the image needs Android and is left out.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PrintBatchBenchmark {
+    private static final int LABELS = 50;
+    private static final long PRINT_LATENCY_MICROS = 500;
+
+    @Param({"5000"})
+    public long connectLatencyMicros;
+
+    private FakePrintPipeline pipeline;
+    private final PrinterTarget target = PrinterTarget.wifi("192.0.2.10");
+    private final LabelDesign design = new LabelDesign();
+
+    @Setup
+    public void setUp() {
+        pipeline = new FakePrintPipeline(new FakePrinterTransport.Device(connectLatencyMicros, PRINT_LATENCY_MICROS), (jobId, result) -> {
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.close();
+    }
+
+    // As printBatch: one session for the batch, closed afterwards so each batch pays its connect
+    @Benchmark
+    @OperationsPerInvocation(LABELS)
+    public int batch() {
+        int r = pipeline.connectionPool.execute(target, printer -> {
+            for (int i = 0; i < LABELS; i++) {
+                int res = printer.print(design, 1);
+                if (res != LabelConst.CLS_SUCCESS) {
+                    return res;
+                }
+            }
+            return LabelConst.CLS_SUCCESS;
+        });
+        pipeline.connectionPool.close(target);
+        return r;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LABELS)
+    public int perCall() {
+        int r = LabelConst.CLS_SUCCESS;
+        for (int i = 0; i < LABELS && r == LabelConst.CLS_SUCCESS; i++) {
+            PrinterTransport printer = pipeline.device.factory().create();
+            r = printer.connect(target);
+            if (r == LabelConst.CLS_SUCCESS) {
+                r = printer.print(design, 1);
+                printer.disconnect();
+            }
+        }
+        return r;
+    }
+}
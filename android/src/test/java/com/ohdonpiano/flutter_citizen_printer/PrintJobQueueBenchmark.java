@@ -0,0 +1,76 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.LabelDesign;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Labels per second through the job queue to one fake printer: each invocation submits JOBS
+// jobs and waits until all have printed. A prepare stage as slow as the printer should not lower
+// the rate, as it overlaps the transmission of the label before.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PrintJobQueueBenchmark {
+    private static final int JOBS = 64;
+
+    @Param({"0", "2000"})
+    public long prepareMicros;
+
+    @Param({"2000"})
+    public long printLatencyMicros;
+
+    private FakePrintPipeline pipeline;
+    private final PrinterTarget target = PrinterTarget.wifi("192.0.2.10");
+    private final LabelDesign design = new LabelDesign();
+    private volatile CountDownLatch ended;
+    private PrintJobQueue.LabelJob job;
+
+    @Setup
+    public void setUp() {
+        pipeline = new FakePrintPipeline(new FakePrinterTransport.Device(0, printLatencyMicros), (jobId, result) -> ended.countDown());
+        job = quantity -> {
+            if (prepareMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(prepareMicros));
+            }
+            return new PrintJobQueue.PreparedLabel() {
+                @Override
+                public int transmit(PrinterTransport printer) {
+                    return printer.print(design, quantity);
+                }
+
+                @Override
+                public void release() {
+                }
+            };
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(JOBS)
+    public void submitAndPrint() throws InterruptedException {
+        ended = new CountDownLatch(JOBS);
+        for (int i = 0; i < JOBS; i++) {
+            pipeline.printJobQueue.submit(target, job, 1, null, UUID.randomUUID().toString(), null);
+        }
+        ended.await();
+    }
+}
@@ -0,0 +1,185 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.citizen.sdk.labelprint.LabelConst;
+import com.citizen.sdk.labelprint.LabelDesign;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class PrintJobQueueTest {
+    private static final int SUBMITTERS = 8;
+    private static final int JOBS_PER_SUBMITTER = 200;
+    private static final PrinterTarget[] TARGETS = {
+            PrinterTarget.wifi("192.0.2.10"), PrinterTarget.wifi("192.0.2.11"), PrinterTarget.wifi("192.0.2.12")};
+
+    private final Map<String, AtomicInteger> ended = new ConcurrentHashMap<>();
+    private final AtomicInteger failed = new AtomicInteger();
+    private FakePrintPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        pipeline = new FakePrintPipeline(new FakePrinterTransport.Device(0, 50), (jobId, result) -> {
+            AtomicInteger count = ended.get(jobId);
+            if (count == null) {
+                AtomicInteger created = new AtomicInteger();
+                count = ended.putIfAbsent(jobId, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            count.incrementAndGet();
+            if (result != LabelConst.CLS_SUCCESS) {
+                failed.incrementAndGet();
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.close();
+    }
+
+    // Jobs submitted from many threads to a few printers, some merging into the one before: each
+    // accepted job ends exactly once, every copy is printed, each submitter's jobs print in order
+    // on their printer and the queues empty
+    @Test
+    void concurrentSubmittersEachJobEndsOnce() throws Exception {
+        LabelDesign design = new LabelDesign();
+        List<String> accepted = new CopyOnWriteArrayList<>();
+        AtomicInteger acceptedCopies = new AtomicInteger();
+        // Order in which each submitter's labels were transmitted, by submitter and printer
+        Map<String, List<Integer>> transmitted = new ConcurrentHashMap<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(SUBMITTERS);
+        try {
+            List<Future<?>> submitters = new ArrayList<>();
+            for (int s = 0; s < SUBMITTERS; s++) {
+                int submitter = s;
+                submitters.add(threads.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < JOBS_PER_SUBMITTER; i++) {
+                        PrinterTarget target = TARGETS[i % TARGETS.length];
+                        String order = submitter + "@" + target.key;
+                        int sequence = i;
+                        int quantity = 1 + i % 3;
+                        PrintJobQueue.LabelJob job = copies -> new PrintJobQueue.PreparedLabel() {
+                            @Override
+                            public int transmit(PrinterTransport printer) {
+                                List<Integer> sequences = transmitted.get(order);
+                                if (sequences == null) {
+                                    List<Integer> created = new CopyOnWriteArrayList<>();
+                                    sequences = transmitted.putIfAbsent(order, created);
+                                    if (sequences == null) {
+                                        sequences = created;
+                                    }
+                                }
+                                sequences.add(sequence);
+                                return printer.print(design, copies);
+                            }
+
+                            @Override
+                            public void release() {
+                            }
+                        };
+                        // Every other job is the same label, so it may merge into the one queued before
+                        Object coalesceKey = i % 2 == 0 ? "same label" : null;
+                        String jobId = submitter + "-" + i;
+                        if (pipeline.printJobQueue.submit(target, job, quantity, coalesceKey, jobId, null)) {
+                            accepted.add(jobId);
+                            acceptedCopies.addAndGet(quantity);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> submitter : submitters) {
+                submitter.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        long deadline = System.currentTimeMillis() + 60000;
+        while (ended.size() < accepted.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(!accepted.isEmpty());
+        assertEquals(accepted.size(), ended.size());
+        for (AtomicInteger count : ended.values()) {
+            assertEquals(1, count.get());
+        }
+        assertEquals(0, failed.get());
+        assertEquals(acceptedCopies.get(), pipeline.device.copies.get());
+        for (Map.Entry<String, List<Integer>> entry : transmitted.entrySet()) {
+            List<Integer> sequences = entry.getValue();
+            for (int i = 1; i < sequences.size(); i++) {
+                assertTrue(sequences.get(i - 1) < sequences.get(i), entry.getKey() + " printed out of order: " + sequences);
+            }
+        }
+        for (PrinterTarget target : TARGETS) {
+            assertEquals(0, pipeline.printJobQueue.queueDepth(target.key));
+        }
+    }
+
+    // A drain that times out while a label is still being prepared stops the printer thread at
+    // once, without reporting the jobs as ended, so the journal resumes them
+    @Test
+    void drainTimeoutStopsTransmitWaitingForItsLabel() throws Exception {
+        PrinterTarget target = TARGETS[0];
+        CountDownLatch preparing = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        PrintJobQueue.LabelJob blocked = quantity -> {
+            preparing.countDown();
+            // Ignores the interrupt of the timed out drain, like a decoder that cannot be stopped
+            while (true) {
+                try {
+                    unblock.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // Keep waiting
+                }
+            }
+            return new PrintJobQueue.PreparedLabel() {
+                @Override
+                public int transmit(PrinterTransport printer) {
+                    return printer.print(new LabelDesign(), 1);
+                }
+
+                @Override
+                public void release() {
+                }
+            };
+        };
+        assertTrue(pipeline.printJobQueue.submit(target, blocked, 1, null, "blocked", null));
+        assertTrue(pipeline.printJobQueue.submit(target, blocked, 1, null, "queued", null));
+        assertTrue(preparing.await(5, TimeUnit.SECONDS));
+
+        long startTime = System.nanoTime();
+        pipeline.executors.drain(JobJournal.JOURNAL_KEY, 200);
+        // The label arrives after the drain gave up on it
+        unblock.countDown();
+        pipeline.executors.shutdown();
+        assertTrue(pipeline.executors.awaitTermination(5000));
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 5000);
+        assertEquals(0, pipeline.device.prints.get());
+        assertTrue(ended.isEmpty(), "ended: " + ended.keySet());
+    }
+}
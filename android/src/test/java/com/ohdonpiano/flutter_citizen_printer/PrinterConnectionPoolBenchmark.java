@@ -0,0 +1,57 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import com.citizen.sdk.labelprint.LabelDesign;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+// One label on a warm pooled session against a connect, print and disconnect per label
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PrinterConnectionPoolBenchmark {
+    private static final long PRINT_LATENCY_MICROS = 500;
+
+    @Param({"1000", "5000"})
+    public long connectLatencyMicros;
+
+    private FakePrintPipeline pipeline;
+    private final PrinterTarget target = PrinterTarget.wifi("192.0.2.10");
+    private final LabelDesign design = new LabelDesign();
+
+    @Setup
+    public void setUp() {
+        pipeline = new FakePrintPipeline(new FakePrinterTransport.Device(connectLatencyMicros, PRINT_LATENCY_MICROS), (jobId, result) -> {
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.close();
+    }
+
+    @Benchmark
+    public int pooled() {
+        return pipeline.connectionPool.execute(target, printer -> printer.print(design, 1));
+    }
+
+    @Benchmark
+    public int connectPerCall() {
+        PrinterTransport printer = pipeline.device.factory().create();
+        int r = printer.connect(target);
+        if (r == 0) {
+            r = printer.print(design, 1);
+            printer.disconnect();
+        }
+        return r;
+    }
+}
@@ -0,0 +1,53 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.citizen.sdk.labelprint.LabelConst;
+import com.citizen.sdk.labelprint.LabelDesign;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RetryPolicyTest {
+    private final PrinterTarget target = PrinterTarget.wifi("192.0.2.10");
+    private final LabelDesign design = new LabelDesign();
+    private FakePrintPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        pipeline = new FakePrintPipeline(new FakePrinterTransport.Device(), (jobId, result) -> {
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.close();
+    }
+
+    // An unreachable printer is not asked for its status: one connect per attempt
+    @Test
+    void connectionFailuresSkipTheStatusCheck() {
+        pipeline.device.connectResult = LabelConst.CLS_E_CONNECT_NOTFOUND;
+
+        int r = pipeline.retryPolicy.execute(target, printer -> printer.print(design, 1));
+
+        assertEquals(LabelConst.CLS_E_CONNECT_NOTFOUND, r);
+        assertEquals(4, pipeline.device.connects.get());
+    }
+
+    // A reachable printer that fails a print is checked: out of paper, it needs an operator and
+    // the job is not retried
+    @Test
+    void printFailureChecksTheStatus() {
+        pipeline.device.printResult = LabelConst.CLS_E_NOEXIST;
+        pipeline.device.paperError = LabelConst.CLS_STS_YES;
+
+        int r = pipeline.retryPolicy.execute(target, printer -> printer.print(design, 1));
+
+        assertEquals(LabelConst.CLS_E_NOEXIST, r);
+        assertEquals(1, pipeline.device.connects.get());
+        assertFalse(pipeline.retryPolicy.isAvailable(target.key));
+    }
+}
@@ -0,0 +1,95 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.flutter.plugin.common.MethodChannel;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SerialNumberSearchTest {
+    private static final int ROUNDS = 500;
+    private static final int RACERS = 4;
+
+    private TestMainThread mainThread;
+
+    @BeforeEach
+    void setUp() {
+        mainThread = new TestMainThread();
+    }
+
+    @AfterEach
+    void tearDown() {
+        mainThread.close();
+    }
+
+    // The last answer, a cancellation, detaching and the timeout race to end the search: it
+    // replies and notifies its listener exactly once
+    @Test
+    void repliesOnceWhateverEndsIt() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(RACERS);
+        try {
+            CyclicBarrier start = new CyclicBarrier(RACERS);
+            for (int round = 0; round < ROUNDS; round++) {
+                CountingResult result = new CountingResult();
+                AtomicInteger completions = new AtomicInteger();
+                SerialNumberSearch search = new SerialNumberSearch(result, Collections.<UsbPrinterInfo>emptyList(),
+                        Collections.<String, UsbPrinterInfo>emptyMap(), s -> completions.incrementAndGet());
+                search.startTimeout(0);
+                List<Future<Boolean>> racers = new ArrayList<>();
+                for (int i = 0; i < RACERS; i++) {
+                    boolean fail = i % 2 == 1;
+                    racers.add(threads.submit(() -> {
+                        start.await();
+                        return fail ? search.fail("SEARCH_CANCELLED", "cancelled") : search.complete();
+                    }));
+                }
+                int ended = 0;
+                for (Future<Boolean> racer : racers) {
+                    if (racer.get(10, TimeUnit.SECONDS)) {
+                        ended++;
+                    }
+                }
+                mainThread.sync();
+
+                assertEquals(1, result.replies.get(), "round " + round);
+                assertEquals(1, completions.get(), "round " + round);
+                // Only one racer wins, none if the timeout came first
+                assertTrue(ended <= 1, "round " + round);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private static class CountingResult implements MethodChannel.Result {
+        public final AtomicInteger replies = new AtomicInteger();
+
+        @Override
+        public void success(Object result) {
+            replies.incrementAndGet();
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            replies.incrementAndGet();
+        }
+
+        @Override
+        public void notImplemented() {
+            replies.incrementAndGet();
+        }
+    }
+}
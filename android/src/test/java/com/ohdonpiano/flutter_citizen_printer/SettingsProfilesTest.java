@@ -0,0 +1,45 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.citizen.sdk.labelprint.LabelConst;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class SettingsProfilesTest {
+    private final FakePrinterTransport.Device device = new FakePrinterTransport.Device();
+    private final SettingsProfiles settingsProfiles = new SettingsProfiles();
+
+    @Test
+    void repeatedProfileWritesNothing() {
+        SettingsProfiles.Profile draft = profile("draft", 6, 2);
+        PrinterTransport printer = device.factory().create();
+
+        assertEquals(LabelConst.CLS_SUCCESS, settingsProfiles.apply(printer, draft));
+        assertEquals(2, device.settingWrites.get());
+        assertEquals(LabelConst.CLS_SUCCESS, settingsProfiles.apply(printer, draft));
+        assertEquals(2, device.settingWrites.get());
+    }
+
+    @Test
+    void newSessionOnlyWritesWhatDiffers() {
+        // A session opened after a reconnect already holding the draft speed
+        PrinterTransport printer = device.factory().create();
+        printer.setPrintSpeed(6);
+        device.settingWrites.set(0);
+
+        assertEquals(LabelConst.CLS_SUCCESS, settingsProfiles.apply(printer, profile("draft", 6, 2)));
+        assertEquals(1, device.settingWrites.get());
+        assertEquals(2, printer.getPrintDarkness());
+    }
+
+    private static SettingsProfiles.Profile profile(String name, int printSpeed, int printDarkness) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("printSpeed", printSpeed);
+        settings.put("printDarkness", printDarkness);
+        return SettingsProfiles.Profile.fromMap(name, settings);
+    }
+}
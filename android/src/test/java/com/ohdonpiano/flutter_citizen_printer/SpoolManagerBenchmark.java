@@ -0,0 +1,71 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Spooling an image for drawBitmap: a new image is hashed and written, an image spooled before
+// is only hashed
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpoolManagerBenchmark {
+    @Param({"16", "256"})
+    public int imageKb;
+
+    private File cacheDir;
+    private SpoolManager spoolManager;
+    private byte[] image;
+    private long counter;
+
+    @Setup
+    public void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("spool-benchmark").toFile();
+        Context context = mock(Context.class);
+        when(context.getCacheDir()).thenReturn(cacheDir);
+        spoolManager = new SpoolManager(context);
+        image = new byte[imageKb * 1024];
+        new Random(42).nextBytes(image);
+    }
+
+    @TearDown
+    public void tearDown() {
+        TestFiles.deleteRecursively(cacheDir);
+    }
+
+    @Benchmark
+    public SpoolManager.SpoolFile newImage() throws IOException {
+        // Change the content so every call writes a new file
+        counter++;
+        for (int i = 0; i < 8; i++) {
+            image[i] = (byte) (counter >>> (i * 8));
+        }
+        SpoolManager.SpoolFile spoolFile = spoolManager.acquire(image, "png");
+        spoolManager.release(spoolFile);
+        return spoolFile;
+    }
+
+    @Benchmark
+    public SpoolManager.SpoolFile cachedImage() throws IOException {
+        SpoolManager.SpoolFile spoolFile = spoolManager.acquire(image, "png");
+        spoolManager.release(spoolFile);
+        return spoolFile;
+    }
+}
@@ -0,0 +1,19 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import java.io.File;
+
+// File helpers shared by the tests and benchmarks
+final class TestFiles {
+    private TestFiles() {
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,116 @@
+package com.ohdonpiano.flutter_citizen_printer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Stands in for the Android main thread on a plain JVM.
+// While open, Looper.getMainLooper() is mocked and every Handler constructed on the opening
+// thread posts to one "test-main" thread, in order and after the requested delay. Mockito scopes
+// both mocks to the opening thread, so the components under test must be created there.
+final class TestMainThread implements AutoCloseable {
+    private final ScheduledThreadPoolExecutor main = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "test-main");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Posts not run yet, so removeCallbacks() can cancel them; each list is guarded by itself
+    private final Map<Runnable, List<ScheduledFuture<?>>> posted = new ConcurrentHashMap<>();
+    private final MockedStatic<Looper> looper;
+    private final MockedConstruction<Handler> handlers;
+
+    TestMainThread() {
+        main.setRemoveOnCancelPolicy(true);
+        looper = Mockito.mockStatic(Looper.class);
+        handlers = Mockito.mockConstruction(Handler.class, (handler, context) -> {
+            when(handler.post(any(Runnable.class))).thenAnswer(call -> post(call.getArgument(0), 0));
+            when(handler.postDelayed(any(Runnable.class), anyLong())).thenAnswer(call -> post(call.getArgument(0), call.getArgument(1)));
+            doAnswer(call -> {
+                cancel(call.getArgument(0));
+                return null;
+            }).when(handler).removeCallbacks(any(Runnable.class));
+        });
+    }
+
+    // Runs the task on the main thread and waits for it, so everything posted before has run
+    void run(Runnable task) {
+        try {
+            main.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Waits until the posts queued so far have run
+    void sync() {
+        run(() -> {
+        });
+    }
+
+    @Override
+    public void close() {
+        handlers.close();
+        looper.close();
+        main.shutdownNow();
+    }
+
+    private boolean post(Runnable runnable, long delayMs) {
+        List<ScheduledFuture<?>> futures = posted.get(runnable);
+        if (futures == null) {
+            List<ScheduledFuture<?>> created = new ArrayList<>();
+            futures = posted.putIfAbsent(runnable, created);
+            if (futures == null) {
+                futures = created;
+            }
+        }
+        List<ScheduledFuture<?>> pending = futures;
+        ScheduledFuture<?>[] future = new ScheduledFuture<?>[1];
+        synchronized (pending) {
+            try {
+                future[0] = main.schedule(() -> {
+                    synchronized (pending) {
+                        pending.remove(future[0]);
+                    }
+                    runnable.run();
+                }, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed, like a Handler whose looper has quit
+                return false;
+            }
+            pending.add(future[0]);
+        }
+        return true;
+    }
+
+    private void cancel(Runnable runnable) {
+        List<ScheduledFuture<?>> futures = posted.remove(runnable);
+        if (futures != null) {
+            synchronized (futures) {
+                for (ScheduledFuture<?> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import 'dart:async';
+import 'dart:typed_data';
+
+import 'package:flutter_citizen_printer/flutter_citizen_printer.dart';
+import 'package:flutter_citizen_printer/print_job.dart';
+
+/// Outcome of a [LoadDriver.run].
+/// Latencies go from the job's submission to its printed or failed event.
+class LoadReport {
+  final int submitted;
+  final int printed;
+  final int failed;
+  final Duration elapsed;
+  final List<Duration> latencies;
+
+  LoadReport({
+    required this.submitted,
+    required this.printed,
+    required this.failed,
+    required this.elapsed,
+    required this.latencies,
+  });
+
+  double get labelsPerMinute => elapsed.inMicroseconds > 0
+      ? printed * Duration.microsecondsPerMinute / elapsed.inMicroseconds
+      : 0;
+
+  /// The latency below which [percentile] percent of the jobs completed.
+  Duration latency(double percentile) {
+    if (latencies.isEmpty) return Duration.zero;
+    final index = ((latencies.length * percentile / 100).ceil() - 1)
+        .clamp(0, latencies.length - 1);
+    return latencies[index];
+  }
+
+  @override
+  String toString() {
+    return 'LoadReport(submitted: $submitted, printed: $printed, failed: $failed, '
+        'elapsed: ${elapsed.inMilliseconds} ms, labelsPerMinute: ${labelsPerMinute.toStringAsFixed(1)}, '
+        'p50: ${latency(50).inMilliseconds} ms, p95: ${latency(95).inMilliseconds} ms, '
+        'p99: ${latency(99).inMilliseconds} ms)';
+  }
+}
+
+/// Pushes many jobs through [FlutterCitizenPrinter.submitPrintJob] (one
+/// target) or a printer group (several targets) and measures throughput and
+/// tail latency from the job events.
+class LoadDriver {
+  static const String _groupId = 'load_driver';
+
+  /// Submits [jobs] copies of [imageBytes], keeping at most [maxInFlight] jobs
+  /// queued or printing at any time, and waits for all of them to complete.
+  static Future<LoadReport> run({
+    required List<PrinterTarget> targets,
+    required Uint8List imageBytes,
+    int jobs = 1000,
+    int maxInFlight = 64,
+  }) async {
+    final useGroup = targets.length > 1;
+    if (useGroup) {
+      await FlutterCitizenPrinter.registerPrinterGroup(_groupId, targets);
+    }
+
+    final submittedAt = <String, DateTime>{};
+    final completedEarly = <String, PrintJobEvent>{};
+    final earlyAt = <String, DateTime>{};
+    final latencies = <Duration>[];
+    var printed = 0;
+    var failed = 0;
+    var inFlight = 0;
+    Completer<void>? slotFreed;
+    final allDone = Completer<void>();
+
+    void complete(PrintJobEvent event, DateTime at) {
+      latencies.add(at.difference(submittedAt.remove(event.jobId)!));
+      if (event.state == PrintJobState.printed) {
+        printed++;
+      } else {
+        failed++;
+      }
+      inFlight--;
+      slotFreed?.complete();
+      slotFreed = null;
+      if (printed + failed == jobs && !allDone.isCompleted) {
+        allDone.complete();
+      }
+    }
+
+    final subscription = FlutterCitizenPrinter.printJobEvents.listen((event) {
+      if (event.state != PrintJobState.printed &&
+          event.state != PrintJobState.failed) {
+        return;
+      }
+      final now = DateTime.now();
+      if (submittedAt.containsKey(event.jobId)) {
+        complete(event, now);
+      } else {
+        // The event overtook the reply carrying the job ID
+        completedEarly[event.jobId] = event;
+        earlyAt[event.jobId] = now;
+      }
+    });
+
+    final start = DateTime.now();
+    try {
+      for (var i = 0; i < jobs; i++) {
+        while (inFlight >= maxInFlight) {
+          slotFreed ??= Completer<void>();
+          await slotFreed!.future;
+        }
+        inFlight++;
+        final submitTime = DateTime.now();
+        final jobId = useGroup
+            ? await FlutterCitizenPrinter.submitGroupJob(_groupId, imageBytes)
+            : await FlutterCitizenPrinter.submitPrintJob(
+                targets.first, imageBytes);
+        submittedAt[jobId] = submitTime;
+        final early = completedEarly.remove(jobId);
+        if (early != null) {
+          complete(early, earlyAt.remove(jobId)!);
+        }
+      }
+      if (jobs > 0) {
+        await allDone.future;
+      }
+    } finally {
+      await subscription.cancel();
+      if (useGroup) {
+        await FlutterCitizenPrinter.removePrinterGroup(_groupId);
+      }
+    }
+
+    latencies.sort();
+    return LoadReport(
+      submitted: jobs,
+      printed: printed,
+      failed: failed,
+      elapsed: DateTime.now().difference(start),
+      latencies: latencies,
+    );
+  }
+}
@@ -1,8 +1,13 @@
 import 'dart:developer';
+import 'dart:io';
 
 import 'package:flutter/material.dart';
 import 'package:flutter/services.dart';
 import 'package:flutter_citizen_printer/flutter_citizen_printer.dart';
+import 'package:flutter_citizen_printer/print_job.dart';
+
+import 'load_driver.dart';
+import 'simulated_printer.dart';
 
 void main() {
   runApp(const MyApp());
@@ -20,6 +25,7 @@ class _MyAppState extends State<MyApp> {
   String usbStatus = "";
   List<UsbPrinterInfo> usbPrinters = [];
   UsbPrinterInfo? selectedPrinter;
+  String loadReport = "";
 
   @override
   Widget build(BuildContext context) {
@@ -209,6 +215,49 @@ class _MyAppState extends State<MyApp> {
                       },
                       child: const Text('Print via WiFi'),
                     ),
+                    Divider(),
+                    ElevatedButton(
+                      onPressed: () async {
+                        // Due stampanti simulate in locale, nessun hardware necessario
+                        final printers = [
+                          SimulatedPrinter(
+                              address: InternetAddress('127.0.0.2'),
+                              failureRate: 0.01),
+                          SimulatedPrinter(
+                              address: InternetAddress('127.0.0.3'),
+                              failureRate: 0.01),
+                        ];
+                        try {
+                          for (final printer in printers) {
+                            await printer.start();
+                          }
+                          final ByteData data =
+                              await rootBundle.load('assets/sample.bmp');
+                          final report = await LoadDriver.run(
+                            targets: printers
+                                .map((printer) => PrinterTarget.wifi(printer.ip))
+                                .toList(),
+                            imageBytes: data.buffer.asUint8List(),
+                            jobs: 1000,
+                          );
+                          log("Load test: $report");
+                          setState(() {
+                            loadReport = report.toString();
+                          });
+                        } catch (e) {
+                          log("Load test error: $e");
+                          setState(() {
+                            loadReport = "Errore: $e";
+                          });
+                        } finally {
+                          for (final printer in printers) {
+                            await printer.stop();
+                          }
+                        }
+                      },
+                      child: const Text('Load test (stampanti simulate)'),
+                    ),
+                    Text(loadReport),
                   ],
                 ),
               ),
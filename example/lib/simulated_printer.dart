@@ -0,0 +1,97 @@
+import 'dart:async';
+import 'dart:io';
+import 'dart:math';
+import 'dart:typed_data';
+
+/// Local TCP stand-in for a networked Citizen label printer, used to load test
+/// the plugin without hardware.
+///
+/// It accepts the connections `LabelPrinter.connect(CLS_PORT_WiFi, ip)` opens on
+/// [address]:[port] and consumes the byte stream the plugin sends. A burst of
+/// bytes followed by [idleGap] of silence counts as one label. The printer is
+/// then busy for [printTime] plus or minus [jitter]: the socket is paused, so
+/// the next label waits as it would on a real printer. With probability
+/// [failureRate] the connection is dropped instead, which exercises the
+/// plugin's reconnect and retry paths.
+///
+/// Every address in 127.0.0.0/8 is local on Android, so several simulators can
+/// run side by side on 127.0.0.2, 127.0.0.3 and so on with the same port.
+/// The simulator does not answer the printer's status queries. [port] must be
+/// the port the Citizen SDK uses for WiFi printers (9100, the raw printing
+/// port, by default).
+class SimulatedPrinter {
+  final InternetAddress address;
+  final int port;
+  final Duration printTime;
+  final Duration jitter;
+  final double failureRate;
+  final Duration idleGap;
+
+  final Random _random = Random();
+  final Set<Socket> _sockets = {};
+  ServerSocket? _server;
+
+  int labels = 0;
+  int bytesReceived = 0;
+  int droppedConnections = 0;
+
+  SimulatedPrinter({
+    required this.address,
+    this.port = 9100,
+    this.printTime = const Duration(milliseconds: 500),
+    this.jitter = const Duration(milliseconds: 100),
+    this.failureRate = 0,
+    this.idleGap = const Duration(milliseconds: 20),
+  });
+
+  /// The IP address to use in a [PrinterTarget.wifi].
+  String get ip => address.address;
+
+  Future<void> start() async {
+    _server = await ServerSocket.bind(address, port, shared: true);
+    _server!.listen(_handleConnection);
+  }
+
+  Future<void> stop() async {
+    await _server?.close();
+    _server = null;
+    for (final socket in _sockets) {
+      socket.destroy();
+    }
+    _sockets.clear();
+  }
+
+  void _handleConnection(Socket socket) {
+    _sockets.add(socket);
+    Timer? labelEnd;
+    late StreamSubscription<Uint8List> subscription;
+
+    void close() {
+      labelEnd?.cancel();
+      _sockets.remove(socket);
+      socket.destroy();
+    }
+
+    subscription = socket.listen((data) {
+      bytesReceived += data.length;
+      labelEnd?.cancel();
+      labelEnd = Timer(idleGap, () async {
+        if (_random.nextDouble() < failureRate) {
+          droppedConnections++;
+          close();
+          return;
+        }
+        subscription.pause();
+        await Future.delayed(_printDuration());
+        labels++;
+        subscription.resume();
+      });
+    }, onError: (_) => close(), onDone: close);
+  }
+
+  Duration _printDuration() {
+    final jitterMs = jitter.inMilliseconds;
+    final offset = jitterMs > 0 ? _random.nextInt(jitterMs * 2 + 1) - jitterMs : 0;
+    return Duration(milliseconds: max(0, printTime.inMilliseconds + offset));
+  }
+}
@@ -0,0 +1,86 @@
+import 'dart:async';
+import 'dart:collection';
+import 'dart:typed_data';
+
+import 'package:flutter/services.dart';
+
+/// What the printer does with the media after a label (Citizen SDK
+/// `CLS_MEDIAHANDLING_*`).
+enum MediaHandling {
+  none(0),
+  tearOff(1),
+  dispense(2),
+  pause(3),
+  cut(4),
+  cutAndPause(5),
+  peelOff(6),
+  rewind(7);
+
+  const MediaHandling(this.value);
+
+  final int value;
+}
+
+/// A long label on continuous media printed band by band, started with
+/// [FlutterCitizenPrinter.startBandedPrint].
+///
+/// Add the horizontal bands of the label from top to bottom with [addBand],
+/// then call [finish]. The printer feeds the media continuously between bands,
+/// and no other job prints in the middle of the label. [addBand] waits while
+/// [maxBandsInFlight] bands are already in flight, so memory use depends on the
+/// band size and not on the label length.
+class BandedPrintJob {
+  /// Bands sent to the printer and not printed yet; the plugin accepts two.
+  static const int maxBandsInFlight = 2;
+
+  final String printId;
+  final MethodChannel _channel;
+  final Queue<Future<void>> _inFlight = Queue();
+  bool _ended = false;
+
+  BandedPrintJob(this.printId, this._channel);
+
+  /// Sends the next band: an image as wide as the label and [height] dots tall
+  /// at 300 dpi. Completes once the band is sent, after waiting for the oldest
+  /// band in flight if needed; throws if a previous band failed to print.
+  Future<void> addBand(Uint8List imageBytes, int height) async {
+    if (_ended) {
+      throw StateError('Banded print $printId already finished');
+    }
+    if (_inFlight.length >= maxBandsInFlight) {
+      await _inFlight.removeFirst();
+    }
+    final printed = _channel.invokeMethod<void>('printBand', {
+      'printId': printId,
+      'imageBytes': imageBytes,
+      'height': height,
+    });
+    // Errors surface when the band is awaited; avoid reporting them as unhandled meanwhile
+    printed.catchError((_) {});
+    _inFlight.add(printed);
+  }
+
+  /// Prints the last band with the label's media handling and completes when
+  /// the whole label is printed.
+  Future<void> finish() async {
+    _ended = true;
+    // The last band is only printed once the plugin knows it is the last one
+    final finished = _channel.invokeMethod<void>('finishBandedPrint', {
+      'printId': printId,
+    });
+    try {
+      while (_inFlight.isNotEmpty) {
+        await _inFlight.removeFirst();
+      }
+    } finally {
+      await finished;
+    }
+  }
+
+  /// Stops the label after the band being printed and drops the others.
+  Future<void> cancel() async {
+    _ended = true;
+    _inFlight.clear();
+    await _channel.invokeMethod('cancelBandedPrint', {'printId': printId});
+  }
+}
@@ -1,5 +1,13 @@
 import 'dart:async';
 import 'package:flutter/services.dart';
+import 'package:flutter_citizen_printer/banded_print.dart';
+import 'package:flutter_citizen_printer/image_message.dart';
+import 'package:flutter_citizen_printer/image_preprocessing.dart';
+import 'package:flutter_citizen_printer/label_template.dart';
+import 'package:flutter_citizen_printer/print_job.dart';
+import 'package:flutter_citizen_printer/print_metrics.dart';
+import 'package:flutter_citizen_printer/printer_settings.dart';
+import 'package:flutter_citizen_printer/printer_status.dart';
 import 'package:flutter_citizen_printer/usb_status.dart';
 
 class CitizenPrinterDetails {
@@ -16,6 +24,24 @@ class CitizenPrinterDetails {
   }
 }
 
+/// A change reported by [FlutterCitizenPrinter.discoveryEvents] while
+/// background discovery is running: a WiFi printer was [found] or [lost].
+class PrinterDiscoveryEvent {
+  final bool found;
+  final CitizenPrinterDetails printer;
+
+  PrinterDiscoveryEvent({required this.found, required this.printer});
+
+  bool get lost => !found;
+
+  factory PrinterDiscoveryEvent.fromMap(Map map) {
+    return PrinterDiscoveryEvent(
+      found: map['event'] == 'found',
+      printer: CitizenPrinterDetails.fromMap(map),
+    );
+  }
+}
+
 class UsbPrinterInfo {
   final String deviceId;
   final String deviceName;
@@ -67,18 +93,35 @@ class UsbPrinterInfo {
 class FlutterCitizenPrinter {
   static const MethodChannel _channel =
   MethodChannel('flutter_citizen_printer');
+  static const BasicMessageChannel<ByteData> _imageChannel =
+  BasicMessageChannel('flutter_citizen_printer/image', BinaryCodec());
+  static const EventChannel _printJobChannel =
+  EventChannel('flutter_citizen_printer/print_jobs');
+  static Stream<PrintJobEvent>? _printJobEvents;
+  static const EventChannel _discoveryChannel =
+  EventChannel('flutter_citizen_printer/discovery');
+  static Stream<PrinterDiscoveryEvent>? _discoveryEvents;
+  static const EventChannel _statusChannel =
+  EventChannel('flutter_citizen_printer/status');
+  static Stream<PrinterStatus>? _statusEvents;
+  static const EventChannel _metricsChannel =
+  EventChannel('flutter_citizen_printer/metrics');
+  static Stream<Map<String, PrinterMetrics>>? _metricsEvents;
 
   /// Detects Citizen printers on the network.
   /// Returns a list of [CitizenPrinterDetails] containing the IP address and device name of each detected printer.
   /// If no printers are found, it returns an empty list.
   /// The [timeout] parameter specifies the maximum time to wait for the detection to complete.
   /// The default timeout is 3 seconds.
+  /// If [useCache] is true (default) and a scan completed recently, for example
+  /// because [startDiscovery] is running, the cached printers are returned
+  /// immediately without scanning.
   ///
   static Future<List<CitizenPrinterDetails>> detectPrinters(
-      {int timeout = 3}) async {
+      {int timeout = 3, bool useCache = true}) async {
     final List<Object?> ips = await _channel.invokeMethod(
       'detectPrinters',
-      {'timeout': timeout},
+      {'timeout': timeout, 'useCache': useCache},
     );
     return ips.map((e) => CitizenPrinterDetails.fromMap(e as Map)).toList();
   }
@@ -88,11 +131,14 @@ class FlutterCitizenPrinter {
   /// If no printers are found, it returns an empty list.
   /// The [timeout] parameter specifies the maximum time to wait for the search to complete.
   /// The default timeout is 3 seconds.
+  /// If [useCache] is true (default) and a scan completed recently, the cached
+  /// IP addresses are returned immediately without scanning.
   ///
-  static Future<List<String>> searchLabelPrinter({int timeout = 3}) async {
+  static Future<List<String>> searchLabelPrinter(
+      {int timeout = 3, bool useCache = true}) async {
     final List<dynamic> ips = await _channel.invokeMethod(
       'searchLabelPrinter',
-      {'timeout': timeout},
+      {'timeout': timeout, 'useCache': useCache},
     );
     return ips.cast<String>();
   }
@@ -110,27 +156,30 @@ class FlutterCitizenPrinter {
   /// Prints an image to a network printer identified by [ipAddress].
   /// [imageBytes] is the image data to be printed.
   /// [width] and [height] are the dimensions of the image in pixels.
+  /// [quantity] copies are printed with a single print command.
   /// This method requires the printer to be connected to the network and reachable via the provided IP address.
   /// Throws an exception if the printer is not found or if there is an error during printing.
   ///
   static Future<void> printImageWiFi(
-      String ip, Uint8List imageBytes, int width, int height) async {
-    await _channel.invokeMethod('printImageWiFi', {
-      'ip': ip,
-      'imageBytes': imageBytes,
-      'width': width,
-      'height': height,
-    });
+      String ip, Uint8List imageBytes, int width, int height,
+      {int quantity = 1}) async {
+    ImageMessage.checkReply(await _imageChannel.send(ImageMessage.encode(
+        ImageMessage.targetWifi, ip, imageBytes,
+        width: width, height: height, quantity: quantity)));
   }
 
   /// Prints an image to a USB printer. To be used with only one USB printer connected to the device.
   /// This method will automatically detect the connected USB printer and print the image, avoiding the need to specify a device ID.
   /// [imageBytes] is the image data to be printed.
+  /// [quantity] copies are printed with a single print command.
   /// This method requires the USB printer to be connected and recognized by the system.
   /// Throws an exception if the printer is not found or if there is an error during printing.
   ///
-  static Future<void> printImageUSB(Uint8List imageBytes) async {
-    await _channel.invokeMethod('printImageUSB', {'imageBytes': imageBytes});
+  static Future<void> printImageUSB(Uint8List imageBytes,
+      {int quantity = 1}) async {
+    ImageMessage.checkReply(await _imageChannel.send(ImageMessage.encode(
+        ImageMessage.targetUsbDefault, '', imageBytes,
+        quantity: quantity)));
   }
 
   /// Search for USB printers connected to the device.
@@ -139,6 +188,9 @@ class FlutterCitizenPrinter {
   /// Note that if includeSerialNumbers is true, the method may take longer to execute
   /// as it retrieves serial numbers for each USB printer, and a specific permission
   /// may be required to access the serial number for each USB device.
+  /// Serial numbers are cached once read, so later searches return them without
+  /// asking for permission again; permission prompts for the remaining devices
+  /// are shown together.
   /// If [includeSerialNumbers] is false, the serial number will be an empty string
   /// in the returned [UsbPrinterInfo] objects.
   /// Returns a list of [UsbPrinterInfo] objects representing the found USB printers.
@@ -157,15 +209,16 @@ class FlutterCitizenPrinter {
   /// Prints an image to a specific USB printer identified by [deviceId].
   /// [deviceId] is the unique identifier of the USB printer.
   /// [imageBytes] is the image data to be printed.
+  /// [quantity] copies are printed with a single print command.
   /// This method requires the USB printer to be connected and recognized by the system.
   /// Throws an exception if the printer is not found or if there is an error during printing.
   ///
   static Future<void> printImageUsbSpecific(
-      String deviceId, Uint8List imageBytes) async {
-    await _channel.invokeMethod('printImageUsbSpecific', {
-      'deviceId': deviceId,
-      'imageBytes': imageBytes,
-    });
+      String deviceId, Uint8List imageBytes,
+      {int quantity = 1}) async {
+    ImageMessage.checkReply(await _imageChannel.send(ImageMessage.encode(
+        ImageMessage.targetUsbDevice, deviceId, imageBytes,
+        quantity: quantity)));
   }
 
   /// Checks if USB permissions are needed for the connected printers.
@@ -197,4 +250,332 @@ class FlutterCitizenPrinter {
       return 0;
     }
   }
+
+  /// Submits an image to the print queue of [target] and returns the job ID
+  /// without waiting for the label to be printed.
+  /// [width] and [height] are the dimensions of the image, 0 to use the image size.
+  /// If [preprocess] is set, the image is scaled and dithered to 1-bit on the
+  /// device before it is sent (see [ImagePreprocessing]).
+  /// Jobs for the same printer are printed in submission order; progress is
+  /// reported on [printJobEvents].
+  /// [quantity] copies are printed with a single print command. A job
+  /// identical to the one submitted just before it for the same printer (same
+  /// image, size, preprocessing and settings profile) is merged into it while
+  /// that job is still waiting, so the label is sent once for all the copies;
+  /// each job keeps its own ID and events.
+  /// Throws an exception with code `QUEUE_FULL` if the printer already has too
+  /// many jobs in flight, or `PERMISSION_DENIED` if a USB printer has not been
+  /// granted permission yet (see [requestUsbPermissions]).
+  ///
+  static Future<String> submitPrintJob(
+      PrinterTarget target, Uint8List imageBytes,
+      {int width = 0,
+      int height = 0,
+      ImagePreprocessing? preprocess,
+      String? settingsProfile,
+      int quantity = 1}) async {
+    final String jobId = await _channel.invokeMethod('submitPrintJob', {
+      'target': target.toMap(),
+      'imageBytes': imageBytes,
+      'width': width,
+      'height': height,
+      'quantity': quantity,
+      if (preprocess != null) 'preprocess': preprocess.toMap(),
+      if (settingsProfile != null) 'settingsProfile': settingsProfile,
+    });
+    return jobId;
+  }
+
+  /// Registers a named group of interchangeable printers, replacing any group
+  /// with the same [groupId]. Jobs submitted with [submitGroupJob] are spread
+  /// over the [targets].
+  ///
+  static Future<void> registerPrinterGroup(
+      String groupId, List<PrinterTarget> targets) async {
+    await _channel.invokeMethod('registerPrinterGroup', {
+      'groupId': groupId,
+      'targets': targets.map((target) => target.toMap()).toList(),
+    });
+  }
+
+  /// Removes a group registered with [registerPrinterGroup].
+  /// Jobs already dispatched to its printers are not affected.
+  ///
+  static Future<void> removePrinterGroup(String groupId) async {
+    await _channel.invokeMethod('removePrinterGroup', {'groupId': groupId});
+  }
+
+  /// Enqueues a label on the least loaded healthy printer of the group and
+  /// returns its job ID, like [submitPrintJob].
+  /// If the printer fails, the job moves to another printer of the group under
+  /// the same job ID; [PrintJobEvent.printer] tells where it is.
+  /// Identical consecutive jobs are merged as with [submitPrintJob].
+  /// Throws an exception with code `GROUP_UNAVAILABLE` if no printer of the group
+  /// can take the job.
+  ///
+  static Future<String> submitGroupJob(String groupId, Uint8List imageBytes,
+      {int width = 0,
+      int height = 0,
+      ImagePreprocessing? preprocess,
+      String? settingsProfile,
+      int quantity = 1}) async {
+    final String jobId = await _channel.invokeMethod('submitGroupJob', {
+      'groupId': groupId,
+      'imageBytes': imageBytes,
+      'width': width,
+      'height': height,
+      'quantity': quantity,
+      if (preprocess != null) 'preprocess': preprocess.toMap(),
+      if (settingsProfile != null) 'settingsProfile': settingsProfile,
+    });
+    return jobId;
+  }
+
+  /// Stream of state changes of the jobs submitted with [submitPrintJob]:
+  /// queued, connecting, sending, then printed or failed.
+  ///
+  static Stream<PrintJobEvent> get printJobEvents {
+    return _printJobEvents ??= _printJobChannel
+        .receiveBroadcastStream()
+        .map((e) => PrintJobEvent.fromMap(e as Map));
+  }
+
+  /// Prints all [images] on [target] over a single connection in one call,
+  /// instead of one channel round trip and one connection per label.
+  /// [width] and [height] are the dimensions of the images, 0 to use the image size.
+  /// If [preprocess] is set, each image is scaled and dithered to 1-bit on the
+  /// device before it is sent (see [ImagePreprocessing]).
+  /// Each image is printed [quantity] times with a single print command.
+  /// Returns the result of each image; a failure does not throw but is
+  /// reported in [PrintBatchResult.results].
+  ///
+  static Future<PrintBatchResult> printBatch(
+      PrinterTarget target, List<Uint8List> images,
+      {int width = 0,
+      int height = 0,
+      ImagePreprocessing? preprocess,
+      String? settingsProfile,
+      int quantity = 1}) async {
+    final Map result = await _channel.invokeMethod('printBatch', {
+      'target': target.toMap(),
+      'images': images,
+      'width': width,
+      'height': height,
+      'quantity': quantity,
+      if (preprocess != null) 'preprocess': preprocess.toMap(),
+      if (settingsProfile != null) 'settingsProfile': settingsProfile,
+    });
+    return PrintBatchResult.fromMap(result);
+  }
+
+  /// Registers a vector label template under [templateId], replacing any
+  /// template previously registered with the same ID.
+  /// The template is parsed once and cached by the plugin, so later calls to
+  /// [printTemplate] only send the variable fields.
+  /// Throws an exception with code `INVALID_TEMPLATE` if an element is incomplete.
+  ///
+  static Future<void> registerTemplate(
+      String templateId, List<LabelTemplateElement> elements) async {
+    await _channel.invokeMethod('registerTemplate', {
+      'templateId': templateId,
+      'elements': elements.map((e) => e.toMap()).toList(),
+    });
+  }
+
+  /// Removes a template registered with [registerTemplate].
+  ///
+  static Future<void> removeTemplate(String templateId) async {
+    await _channel.invokeMethod('removeTemplate', {'templateId': templateId});
+  }
+
+  /// Prints the template registered as [templateId] on [target], replacing
+  /// each `{{field}}` placeholder with the value from [fields].
+  /// [quantity] copies are printed with a single print command.
+  /// Throws an exception with code `TEMPLATE_NOT_FOUND` if the template is not
+  /// registered, or `PRINT_ERROR` if printing fails.
+  ///
+  static Future<void> printTemplate(PrinterTarget target, String templateId,
+      {Map<String, String> fields = const {},
+      String? settingsProfile,
+      int quantity = 1}) async {
+    await _channel.invokeMethod('printTemplate', {
+      'target': target.toMap(),
+      'templateId': templateId,
+      'fields': fields,
+      'quantity': quantity,
+      if (settingsProfile != null) 'settingsProfile': settingsProfile,
+    });
+  }
+
+  /// Sets how many images stored with [LabelTemplateElement.nvBitmap] the
+  /// [target] printer can keep in its non-volatile memory (8 by default).
+  ///
+  static Future<void> setNvBitmapCapacity(
+      PrinterTarget target, int capacity) async {
+    await _channel.invokeMethod('setNvBitmapCapacity', {
+      'target': target.toMap(),
+      'capacity': capacity,
+    });
+  }
+
+  /// Runs the same preprocessing as the print methods on [imageBytes] without
+  /// printing, and returns the 1-bit bitmap with the time the conversion took.
+  /// Useful to preview the dithered label, or to compare the bytes sent and the
+  /// time per label against sending the original image.
+  ///
+  static Future<PreprocessedImage> preprocessImage(
+      Uint8List imageBytes, ImagePreprocessing preprocess) async {
+    final Map result = await _channel.invokeMethod('preprocessImage', {
+      'imageBytes': imageBytes,
+      'preprocess': preprocess.toMap(),
+    });
+    return PreprocessedImage.fromMap(result);
+  }
+
+  /// Starts scanning for WiFi printers in the background.
+  /// Each scan round lasts [scanTimeout] seconds and a new round starts every
+  /// [refreshInterval]. Printers are reported on [discoveryEvents] as soon as the
+  /// round that found them completes, and reported as lost when they have not
+  /// been seen for [ttl]. While scanning, [detectPrinters] and
+  /// [searchLabelPrinter] answer immediately from the cache.
+  /// Calling it again while running updates the settings.
+  ///
+  static Future<void> startDiscovery(
+      {Duration refreshInterval = const Duration(seconds: 10),
+      int scanTimeout = 1,
+      Duration ttl = const Duration(seconds: 30)}) async {
+    await _channel.invokeMethod('startDiscovery', {
+      'refreshIntervalMs': refreshInterval.inMilliseconds,
+      'scanTimeout': scanTimeout,
+      'ttlMs': ttl.inMilliseconds,
+    });
+  }
+
+  /// Stops the background scanning started with [startDiscovery].
+  ///
+  static Future<void> stopDiscovery() async {
+    await _channel.invokeMethod('stopDiscovery');
+  }
+
+  /// Stream of WiFi printers found or lost by background discovery.
+  ///
+  static Stream<PrinterDiscoveryEvent> get discoveryEvents {
+    return _discoveryEvents ??= _discoveryChannel
+        .receiveBroadcastStream()
+        .map((e) => PrinterDiscoveryEvent.fromMap(e as Map));
+  }
+
+  /// Starts monitoring the status of [target] every [interval] over a shared
+  /// connection. Only changes are reported on [statusEvents], and the latest
+  /// status is available immediately from [getCachedStatus].
+  /// Calling it again for the same printer changes the interval.
+  ///
+  static Future<void> startStatusMonitor(PrinterTarget target,
+      {Duration interval = const Duration(seconds: 1)}) async {
+    await _channel.invokeMethod('startStatusMonitor', {
+      'target': target.toMap(),
+      'intervalMs': interval.inMilliseconds,
+    });
+  }
+
+  /// Stops monitoring [target].
+  ///
+  static Future<void> stopStatusMonitor(PrinterTarget target) async {
+    await _channel.invokeMethod('stopStatusMonitor', {
+      'target': target.toMap(),
+    });
+  }
+
+  /// Returns the last known status of [target] without querying the printer,
+  /// or null if it was never checked.
+  ///
+  static Future<PrinterStatus?> getCachedStatus(PrinterTarget target) async {
+    final Map? status = await _channel.invokeMethod('getCachedStatus', {
+      'target': target.toMap(),
+    });
+    return status != null ? PrinterStatus.fromMap(status) : null;
+  }
+
+  /// Stream of status changes of the monitored printers.
+  ///
+  static Stream<PrinterStatus> get statusEvents {
+    return _statusEvents ??= _statusChannel
+        .receiveBroadcastStream()
+        .map((e) => PrinterStatus.fromMap(e as Map));
+  }
+
+  /// Returns the latency histograms and counters of every printer used so far,
+  /// keyed by printer (see [PrintJobEvent.printer]). Discovery is reported
+  /// under `discovery`.
+  ///
+  static Future<Map<String, PrinterMetrics>> getMetrics() async {
+    final Map snapshot = await _channel.invokeMethod('getMetrics');
+    return PrinterMetrics.fromSnapshot(snapshot);
+  }
+
+  /// Clears all metrics.
+  ///
+  static Future<void> resetMetrics() async {
+    await _channel.invokeMethod('resetMetrics');
+  }
+
+  /// Sends a metrics snapshot on [metricsEvents] every [interval] until
+  /// [stopMetricsReporting] is called.
+  ///
+  static Future<void> startMetricsReporting(
+      {Duration interval = const Duration(seconds: 5)}) async {
+    await _channel.invokeMethod('startMetricsReporting', {
+      'intervalMs': interval.inMilliseconds,
+    });
+  }
+
+  /// Stops the snapshots started with [startMetricsReporting].
+  ///
+  static Future<void> stopMetricsReporting() async {
+    await _channel.invokeMethod('stopMetricsReporting');
+  }
+
+  /// Stream of periodic metrics snapshots, see [startMetricsReporting].
+  ///
+  static Stream<Map<String, PrinterMetrics>> get metricsEvents {
+    return _metricsEvents ??= _metricsChannel
+        .receiveBroadcastStream()
+        .map((e) => PrinterMetrics.fromSnapshot(e as Map));
+  }
+
+  /// Starts printing a long label on continuous media in horizontal bands, so
+  /// the whole image never has to be built or held in memory at once.
+  /// [mediaHandling] applies after the last band; by default the printer's
+  /// current setting is kept. See [BandedPrintJob].
+  ///
+  static Future<BandedPrintJob> startBandedPrint(PrinterTarget target,
+      {MediaHandling? mediaHandling}) async {
+    final String printId = await _channel.invokeMethod('startBandedPrint', {
+      'target': target.toMap(),
+      if (mediaHandling != null) 'mediaHandling': mediaHandling.value,
+    });
+    return BandedPrintJob(printId, _channel);
+  }
+
+  /// Registers a named settings profile, replacing any profile with the same
+  /// [name]. Jobs reference it with their `settingsProfile` parameter
+  /// ([submitPrintJob], [submitGroupJob], [printBatch], [printTemplate]).
+  /// The plugin remembers the settings applied to each printer connection and
+  /// only changes those that differ, so reusing or switching profiles costs
+  /// nothing when the values already match. Jobs with an unknown profile throw
+  /// an exception with code `PROFILE_NOT_FOUND`.
+  ///
+  static Future<void> registerSettingsProfile(
+      String name, PrinterSettings settings) async {
+    await _channel.invokeMethod('registerSettingsProfile', {
+      'name': name,
+      'settings': settings.toMap(),
+    });
+  }
+
+  /// Removes a profile registered with [registerSettingsProfile].
+  ///
+  static Future<void> removeSettingsProfile(String name) async {
+    await _channel.invokeMethod('removeSettingsProfile', {'name': name});
+  }
 }
@@ -0,0 +1,58 @@
+import 'dart:convert';
+import 'dart:typed_data';
+
+import 'package:flutter/services.dart';
+
+/// Binary framing of the image print requests sent on the
+/// `flutter_citizen_printer/image` channel, so large images are not encoded
+/// into a `StandardMethodCodec` argument map.
+///
+/// A message is a 16-byte little-endian header (version, target, address
+/// length, width, height, quantity) followed by the UTF-8 printer address and
+/// the raw image bytes. Keep in sync with `ImageMessage.java`.
+class ImageMessage {
+  static const int version = 1;
+  static const int headerSize = 16;
+  static const int targetWifi = 0;
+  static const int targetUsbDefault = 1;
+  static const int targetUsbDevice = 2;
+
+  /// Builds the message for [imageBytes] sent to [address] (an IP address or a
+  /// USB device ID, empty for the default USB printer), printed [quantity]
+  /// times.
+  static ByteData encode(int target, String address, Uint8List imageBytes,
+      {int width = 0, int height = 0, int quantity = 1}) {
+    final addressBytes = utf8.encode(address);
+    final message =
+        Uint8List(headerSize + addressBytes.length + imageBytes.length);
+    ByteData.sublistView(message)
+      ..setUint8(0, version)
+      ..setUint8(1, target)
+      ..setUint16(2, addressBytes.length, Endian.little)
+      ..setInt32(4, width, Endian.little)
+      ..setInt32(8, height, Endian.little)
+      ..setInt32(12, quantity, Endian.little);
+    message.setRange(headerSize, headerSize + addressBytes.length, addressBytes);
+    message.setRange(
+        headerSize + addressBytes.length, message.length, imageBytes);
+    return ByteData.sublistView(message);
+  }
+
+  /// Throws a [PlatformException] if [reply] reports an error, like a failed
+  /// method call would.
+  static void checkReply(ByteData? reply) {
+    if (reply == null) {
+      throw MissingPluginException(
+          'No handler for the flutter_citizen_printer/image channel');
+    }
+    if (reply.getUint8(0) == 0) {
+      return;
+    }
+    final bytes = Uint8List.sublistView(reply, 1);
+    final separator = bytes.indexOf(0);
+    throw PlatformException(
+      code: utf8.decode(bytes.sublist(0, separator)),
+      message: utf8.decode(bytes.sublist(separator + 1)),
+    );
+  }
+}
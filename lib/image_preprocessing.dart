@@ -0,0 +1,57 @@
+import 'dart:typed_data';
+
+enum DitherMode {
+  floydSteinberg('floydSteinberg'),
+  ordered('ordered'),
+  threshold('threshold');
+
+  const DitherMode(this.value);
+
+  final String value;
+}
+
+/// On-device preprocessing applied before an image is sent to the printer.
+/// The image is scaled to [widthDots] (the media width in printer dots, for
+/// example 832 for a 72 mm wide label at 300 dpi; 0 keeps the image width) and
+/// dithered to black and white with [dither], then sent as a 1-bit bitmap.
+/// This is much smaller and faster to print than a full-colour image, and photos
+/// look better than with the printer's own thresholding.
+class ImagePreprocessing {
+  final int widthDots;
+  final DitherMode dither;
+
+  const ImagePreprocessing(
+      {this.widthDots = 0, this.dither = DitherMode.floydSteinberg});
+
+  Map<String, dynamic> toMap() {
+    return {
+      'widthDots': widthDots,
+      'dither': dither.value,
+    };
+  }
+}
+
+/// Result of [FlutterCitizenPrinter.preprocessImage]: the 1-bit BMP that would
+/// be sent to the printer, its size in dots and the time the conversion took.
+class PreprocessedImage {
+  final Uint8List imageBytes;
+  final int width;
+  final int height;
+  final Duration elapsed;
+
+  PreprocessedImage({
+    required this.imageBytes,
+    required this.width,
+    required this.height,
+    required this.elapsed,
+  });
+
+  factory PreprocessedImage.fromMap(Map map) {
+    return PreprocessedImage(
+      imageBytes: map['imageBytes'] as Uint8List,
+      width: map['width'] as int,
+      height: map['height'] as int,
+      elapsed: Duration(milliseconds: map['elapsedMs'] as int),
+    );
+  }
+}
@@ -0,0 +1,184 @@
+import 'dart:typed_data';
+
+/// A drawing command of a vector label template registered with
+/// [FlutterCitizenPrinter.registerTemplate].
+/// Templates are rendered by the printer from text, barcode and shape commands,
+/// which is a few hundred bytes instead of a rasterized image.
+/// Text [data] may contain `{{field}}` placeholders that are filled in with the
+/// `fields` passed to [FlutterCitizenPrinter.printTemplate].
+/// Coordinates and sizes are passed to the Citizen SDK as they are, and the
+/// integer options are the `LabelConst` values of the SDK
+/// (see `Manual/Javadoc/constant-values.html`).
+class LabelTemplateElement {
+  final Map<String, dynamic> _definition;
+
+  const LabelTemplateElement._(this._definition);
+
+  /// Text drawn with a printer device font.
+  /// [font] defaults to CLS_PRT_FNT_TRIUMVIRATE (9) and [size] to CLS_PRT_FNT_SIZE_10 (4).
+  factory LabelTemplateElement.text(String data,
+      {required int x,
+      required int y,
+      int? font,
+      int? size,
+      int? rotation,
+      int? hexp,
+      int? vexp,
+      int? locale}) {
+    return LabelTemplateElement._({
+      'type': 'text',
+      'data': data,
+      'x': x,
+      'y': y,
+      if (font != null) 'font': font,
+      if (size != null) 'size': size,
+      if (rotation != null) 'rotation': rotation,
+      if (hexp != null) 'hexp': hexp,
+      if (vexp != null) 'vexp': vexp,
+      if (locale != null) 'locale': locale,
+    });
+  }
+
+  /// One-dimensional barcode. [symbology] defaults to CLS_BCS_CODE128 (104).
+  factory LabelTemplateElement.barcode(String data,
+      {required int x,
+      required int y,
+      required int height,
+      int? symbology,
+      int? rotation,
+      int? thick,
+      int? narrow,
+      bool showText = true}) {
+    return LabelTemplateElement._({
+      'type': 'barcode',
+      'data': data,
+      'x': x,
+      'y': y,
+      'height': height,
+      if (symbology != null) 'symbology': symbology,
+      if (rotation != null) 'rotation': rotation,
+      if (thick != null) 'thick': thick,
+      if (narrow != null) 'narrow': narrow,
+      'showText': showText ? 1 : 0,
+    });
+  }
+
+  /// QR code. [ecLevel] defaults to CLS_QRCODE_EC_LEVEL_M (1).
+  factory LabelTemplateElement.qrCode(String data,
+      {required int x,
+      required int y,
+      int? exp,
+      int? ecLevel,
+      int? rotation,
+      int? encoding}) {
+    return LabelTemplateElement._({
+      'type': 'qrCode',
+      'data': data,
+      'x': x,
+      'y': y,
+      if (exp != null) 'exp': exp,
+      if (ecLevel != null) 'ecLevel': ecLevel,
+      if (rotation != null) 'rotation': rotation,
+      if (encoding != null) 'encoding': encoding,
+    });
+  }
+
+  /// Data Matrix code.
+  factory LabelTemplateElement.dataMatrix(String data,
+      {required int x,
+      required int y,
+      int? exp,
+      int? ecLevel,
+      int? rotation,
+      int? encoding}) {
+    return LabelTemplateElement._({
+      'type': 'dataMatrix',
+      'data': data,
+      'x': x,
+      'y': y,
+      if (exp != null) 'exp': exp,
+      if (ecLevel != null) 'ecLevel': ecLevel,
+      if (rotation != null) 'rotation': rotation,
+      if (encoding != null) 'encoding': encoding,
+    });
+  }
+
+  /// Box outline.
+  factory LabelTemplateElement.rect(
+      {required int x,
+      required int y,
+      required int width,
+      required int height,
+      int thickness = 1}) {
+    return LabelTemplateElement._({
+      'type': 'rect',
+      'x': x,
+      'y': y,
+      'width': width,
+      'height': height,
+      'thickness': thickness,
+    });
+  }
+
+  /// Box filled with a shaded [pattern] (CLS_SHADED_PTN_0 to CLS_SHADED_PTN_11).
+  factory LabelTemplateElement.fillRect(
+      {required int x,
+      required int y,
+      required int width,
+      required int height,
+      required int pattern}) {
+    return LabelTemplateElement._({
+      'type': 'fillRect',
+      'x': x,
+      'y': y,
+      'width': width,
+      'height': height,
+      'pattern': pattern,
+    });
+  }
+
+  /// Straight line.
+  factory LabelTemplateElement.line(
+      {required int x1,
+      required int y1,
+      required int x2,
+      required int y2,
+      int thickness = 1}) {
+    return LabelTemplateElement._({
+      'type': 'line',
+      'x1': x1,
+      'y1': y1,
+      'x2': x2,
+      'y2': y2,
+      'thickness': thickness,
+    });
+  }
+
+  /// Recurring image, such as a logo or a hazard pictogram, kept in the
+  /// printer's non-volatile memory.
+  /// The image is uploaded to each printer only the first time it is needed and
+  /// then referenced by name, so it is not re-sent with every label.
+  /// Each printer holds a limited number of images, see
+  /// [FlutterCitizenPrinter.setNvBitmapCapacity]; the least recently used one is
+  /// replaced when they are all taken.
+  factory LabelTemplateElement.nvBitmap(Uint8List imageBytes,
+      {required int x,
+      required int y,
+      int width = 0,
+      int height = 0,
+      int hexp = 1,
+      int vexp = 1}) {
+    return LabelTemplateElement._({
+      'type': 'nvBitmap',
+      'imageBytes': imageBytes,
+      'x': x,
+      'y': y,
+      'width': width,
+      'height': height,
+      'hexp': hexp,
+      'vexp': vexp,
+    });
+  }
+
+  Map<String, dynamic> toMap() => _definition;
+}
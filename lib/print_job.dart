@@ -0,0 +1,109 @@
+/// Identifies the printer a job is sent to.
+/// Use [PrinterTarget.wifi] for network printers, [PrinterTarget.usb] for a specific
+/// USB printer (see [UsbPrinterInfo.deviceId]) or [PrinterTarget.defaultUsb] for the
+/// only USB printer connected to the device.
+class PrinterTarget {
+  final String type;
+  final String? ip;
+  final String? deviceId;
+
+  const PrinterTarget._(this.type, {this.ip, this.deviceId});
+
+  const PrinterTarget.wifi(String ip) : this._('wifi', ip: ip);
+
+  const PrinterTarget.usb(String deviceId) : this._('usb', deviceId: deviceId);
+
+  const PrinterTarget.defaultUsb() : this._('usb');
+
+  Map<String, dynamic> toMap() {
+    return {
+      'type': type,
+      if (ip != null) 'ip': ip,
+      if (deviceId != null) 'deviceId': deviceId,
+    };
+  }
+
+  @override
+  String toString() {
+    return 'PrinterTarget(type: $type, ip: $ip, deviceId: $deviceId)';
+  }
+}
+
+enum PrintJobState {
+  queued('queued'),
+  connecting('connecting'),
+  sending('sending'),
+  printed('printed'),
+  failed('failed');
+
+  const PrintJobState(this.value);
+
+  final String value;
+
+  static PrintJobState fromValue(String value) {
+    return PrintJobState.values.firstWhere((state) => state.value == value,
+        orElse: () => PrintJobState.failed);
+  }
+}
+
+/// A state change of a job submitted with [FlutterCitizenPrinter.submitPrintJob].
+/// [printer] identifies the printer the job runs on.
+/// [error] is the Citizen SDK result code when [state] is [PrintJobState.failed].
+class PrintJobEvent {
+  final String jobId;
+  final String printer;
+  final PrintJobState state;
+  final int? error;
+
+  PrintJobEvent({
+    required this.jobId,
+    required this.printer,
+    required this.state,
+    this.error,
+  });
+
+  factory PrintJobEvent.fromMap(Map map) {
+    return PrintJobEvent(
+      jobId: map['jobId'] as String,
+      printer: map['printer'] as String,
+      state: PrintJobState.fromValue(map['state'] as String),
+      error: map['error'] as int?,
+    );
+  }
+
+  @override
+  String toString() {
+    return 'PrintJobEvent(jobId: $jobId, printer: $printer, state: ${state.value}, error: $error)';
+  }
+}
+
+/// Outcome of [FlutterCitizenPrinter.printBatch].
+/// [results] holds the Citizen SDK result code of each image, in order
+/// (0 means printed); [elapsed] is the time spent on the printer for the whole batch.
+class PrintBatchResult {
+  final List<int> results;
+  final Duration elapsed;
+
+  PrintBatchResult({required this.results, required this.elapsed});
+
+  factory PrintBatchResult.fromMap(Map map) {
+    return PrintBatchResult(
+      results: (map['results'] as List).cast<int>(),
+      elapsed: Duration(milliseconds: map['elapsedMs'] as int),
+    );
+  }
+
+  bool get allPrinted => results.every((result) => result == 0);
+
+  /// Labels per minute achieved by the batch.
+  double get labelsPerMinute => elapsed.inMilliseconds > 0
+      ? results.where((result) => result == 0).length *
+          60000 /
+          elapsed.inMilliseconds
+      : 0;
+
+  @override
+  String toString() {
+    return 'PrintBatchResult(results: $results, elapsed: $elapsed)';
+  }
+}
@@ -0,0 +1,78 @@
+/// Latency of one stage of the print or discovery path, in milliseconds.
+/// Percentiles come from a bucketed histogram and are accurate to within 25%.
+class StageLatency {
+  final int count;
+  final double meanMs;
+  final double p50Ms;
+  final double p95Ms;
+  final double p99Ms;
+  final double maxMs;
+
+  StageLatency({
+    required this.count,
+    required this.meanMs,
+    required this.p50Ms,
+    required this.p95Ms,
+    required this.p99Ms,
+    required this.maxMs,
+  });
+
+  factory StageLatency.fromMap(Map map) {
+    return StageLatency(
+      count: map['count'] as int,
+      meanMs: (map['meanMs'] as num).toDouble(),
+      p50Ms: (map['p50Ms'] as num).toDouble(),
+      p95Ms: (map['p95Ms'] as num).toDouble(),
+      p99Ms: (map['p99Ms'] as num).toDouble(),
+      maxMs: (map['maxMs'] as num).toDouble(),
+    );
+  }
+
+  @override
+  String toString() {
+    return 'StageLatency(count: $count, p50: ${p50Ms}ms, p95: ${p95Ms}ms, p99: ${p99Ms}ms, max: ${maxMs}ms)';
+  }
+}
+
+/// Metrics of one printer since the plugin started or since
+/// [FlutterCitizenPrinter.resetMetrics].
+/// [stages] is keyed by stage name: `connect`, `preprocess`, `spool`, `draw`,
+/// `print`, `disconnect`, `job` (a whole job including retries) and `discovery`.
+class PrinterMetrics {
+  final Map<String, StageLatency> stages;
+  final int labels;
+  final int errors;
+  final int bytesSent;
+  final double labelsPerMinute;
+
+  PrinterMetrics({
+    required this.stages,
+    required this.labels,
+    required this.errors,
+    required this.bytesSent,
+    required this.labelsPerMinute,
+  });
+
+  factory PrinterMetrics.fromMap(Map map) {
+    final Map stages = map['stages'] as Map;
+    return PrinterMetrics(
+      stages: stages.map((name, stage) =>
+          MapEntry(name as String, StageLatency.fromMap(stage as Map))),
+      labels: map['labels'] as int,
+      errors: map['errors'] as int,
+      bytesSent: map['bytesSent'] as int,
+      labelsPerMinute: (map['labelsPerMinute'] as num).toDouble(),
+    );
+  }
+
+  /// Parses a snapshot keyed by printer (see [PrintJobEvent.printer]).
+  static Map<String, PrinterMetrics> fromSnapshot(Map snapshot) {
+    return snapshot.map((printer, metrics) =>
+        MapEntry(printer as String, PrinterMetrics.fromMap(metrics as Map)));
+  }
+
+  @override
+  String toString() {
+    return 'PrinterMetrics(labels: $labels, errors: $errors, bytesSent: $bytesSent, labelsPerMinute: $labelsPerMinute, stages: $stages)';
+  }
+}
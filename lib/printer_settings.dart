@@ -0,0 +1,60 @@
+import 'package:flutter_citizen_printer/banded_print.dart';
+
+/// How the printer detects the start of each label (Citizen SDK
+/// `CLS_SELSENSOR_*`).
+enum LabelSensor {
+  none(0),
+  seeThrough(1),
+  reflect(2);
+
+  const LabelSensor(this.value);
+
+  final int value;
+}
+
+/// Printer settings held by a profile registered with
+/// [FlutterCitizenPrinter.registerSettingsProfile].
+/// Values use the Citizen SDK ranges for the printer model; settings left
+/// `null` are not changed by the profile.
+class PrinterSettings {
+  final int? printSpeed;
+  final int? feedSpeed;
+  final int? printDarkness;
+  final MediaHandling? mediaHandling;
+  final LabelSensor? labelSensor;
+  final int? verticalOffset;
+  final int? horizontalOffset;
+  final int? startOffset;
+  final int? stopOffset;
+
+  const PrinterSettings({
+    this.printSpeed,
+    this.feedSpeed,
+    this.printDarkness,
+    this.mediaHandling,
+    this.labelSensor,
+    this.verticalOffset,
+    this.horizontalOffset,
+    this.startOffset,
+    this.stopOffset,
+  });
+
+  Map<String, dynamic> toMap() {
+    return {
+      if (printSpeed != null) 'printSpeed': printSpeed,
+      if (feedSpeed != null) 'feedSpeed': feedSpeed,
+      if (printDarkness != null) 'printDarkness': printDarkness,
+      if (mediaHandling != null) 'mediaHandling': mediaHandling!.value,
+      if (labelSensor != null) 'labelSensor': labelSensor!.value,
+      if (verticalOffset != null) 'verticalOffset': verticalOffset,
+      if (horizontalOffset != null) 'horizontalOffset': horizontalOffset,
+      if (startOffset != null) 'startOffset': startOffset,
+      if (stopOffset != null) 'stopOffset': stopOffset,
+    };
+  }
+
+  @override
+  String toString() {
+    return 'PrinterSettings(${toMap()})';
+  }
+}
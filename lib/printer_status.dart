@@ -0,0 +1,50 @@
+import 'package:flutter_citizen_printer/usb_status.dart';
+
+/// Status of a printer as reported by the status monitor
+/// (see [FlutterCitizenPrinter.startStatusMonitor]).
+/// [printer] identifies the printer, [rawStatus] is the status bitmask decoded
+/// by [CitizenPrinterUsbStatus], read from the printer after a successful
+/// `printerCheck()`. [error] is the Citizen SDK error code when the printer
+/// could not be reached or the status could not be read (for example 1201 for
+/// cover open), 0 otherwise. [printing] is true while the printer is printing.
+/// [updated] is when the printer was last checked.
+class PrinterStatus {
+  final String printer;
+  final int rawStatus;
+  final int error;
+  final bool connected;
+  final bool printing;
+  final DateTime updated;
+
+  PrinterStatus({
+    required this.printer,
+    required this.rawStatus,
+    required this.error,
+    required this.connected,
+    required this.printing,
+    required this.updated,
+  });
+
+  factory PrinterStatus.fromMap(Map map) {
+    return PrinterStatus(
+      printer: map['printer'] as String,
+      rawStatus: map['status'] as int,
+      error: map['error'] as int,
+      connected: map['connected'] as bool,
+      printing: map['printing'] as bool,
+      updated: DateTime.fromMillisecondsSinceEpoch(map['updated'] as int),
+    );
+  }
+
+  /// The decoded status flags, empty if the status could not be read.
+  List<CitizenPrinterUsbStatus> get statuses =>
+      connected && error == 0 ? CitizenPrinterUsbStatus.fromCode(rawStatus) : const [];
+
+  /// Whether the printer is connected and reports no error condition.
+  bool get isReady => connected && error == 0 && rawStatus == 0;
+
+  @override
+  String toString() {
+    return 'PrinterStatus(printer: $printer, rawStatus: $rawStatus, error: $error, connected: $connected, printing: $printing, updated: $updated)';
+  }
+}